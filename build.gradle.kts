@@ -47,6 +47,8 @@ dependencies {
     implementation("commons-io:commons-io:2.21.0")
     implementation("com.github.ben-manes.caffeine:caffeine:3.1.8")
     implementation("org.eclipse.jetty:jetty-client:12.1.5")
+    implementation("org.eclipse.jetty.http2:jetty-http2-client-transport:12.1.5")
+    runtimeOnly("org.eclipse.jetty:jetty-alpn-java-client:12.1.5")
 }
 
 tasks.test {
@@ -25,5 +25,15 @@ public interface CacheAdapter {
      * @return cache entry/locator (if available)
      */
     CacheEntry put(ImageDigest digest, CachePayload payload, CacheMediaType mediaType) throws IOException;
+
+    /**
+     * Open a staging file inside the cache, so a download can be written once and committed in place
+     * instead of being copied in by {@link #put}.
+     *
+     * @return empty if this cache cannot stage writes
+     */
+    default Optional<CacheStaging> stage(ImageDigest digest) throws IOException {
+        return Optional.empty();
+    }
 }
 
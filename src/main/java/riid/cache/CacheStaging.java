@@ -0,0 +1,23 @@
+package riid.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Staging file for a blob that is written straight into the cache (see {@link CacheAdapter#stage}).
+ * The entry becomes visible only on {@link #commit}; closing an uncommitted staging deletes the file.
+ */
+public interface CacheStaging extends AutoCloseable {
+    /**
+     * File to write the blob into.
+     */
+    Path path();
+
+    /**
+     * Publish the fully written and verified staging file under its digest (atomically where supported).
+     */
+    CacheEntry commit(long sizeBytes, CacheMediaType mediaType) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -85,13 +85,59 @@ public final class FileCacheAdapter implements CacheAdapter {
             throw ex;
         }
         long size = payload.sizeBytes() > 0 ? payload.sizeBytes() : Files.size(temp);
+        moveIntoPlace(temp, target);
+        String key = root.relativize(target).toString();
+        return new CacheEntry(digest, size, mediaType, key);
+    }
+
+    /**
+     * Staging files live next to the entries, so committing is a rename within the cache directory.
+     */
+    @Override
+    public Optional<CacheStaging> stage(ImageDigest digest) throws IOException {
+        return Optional.of(new FileStaging(digest, Files.createTempFile(root, "cache-", ".tmp")));
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
         try {
             Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (AtomicMoveNotSupportedException e) {
             LOGGER.warn("Atomic move not supported, falling back to regular move for {}", target);
             Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
         }
-        String key = root.relativize(target).toString();
-        return new CacheEntry(digest, size, mediaType, key);
+    }
+
+    private final class FileStaging implements CacheStaging {
+        private final ImageDigest digest;
+        private final Path temp;
+        private boolean committed;
+
+        FileStaging(ImageDigest digest, Path temp) {
+            this.digest = digest;
+            this.temp = temp;
+        }
+
+        @Override
+        public Path path() {
+            return temp;
+        }
+
+        @Override
+        public synchronized CacheEntry commit(long sizeBytes, CacheMediaType mediaType) throws IOException {
+            if (committed) {
+                throw new IllegalStateException("Staging for " + digest + " already committed");
+            }
+            Path target = pathFor(digest);
+            moveIntoPlace(temp, target);
+            committed = true;
+            return new CacheEntry(digest, sizeBytes, mediaType, root.relativize(target).toString());
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
     }
 }
@@ -4,17 +4,42 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Token cache backed by Caffeine with per-entry TTL.
+ * Refresh-ahead: once a token has lived refreshAheadRatio of its TTL, {@link #tryStartRefresh} hands out the
+ * renewal to one caller while everybody keeps getting the still valid token.
  */
 public final class TokenCache {
+    private static final double NO_REFRESH_AHEAD = 1;
+    private static final long MAX_ENTRIES = 10_000;
+    private static final Map<Double, TokenCache> PROCESS_WIDE = new ConcurrentHashMap<>();
+
     private final Cache<String, Entry> cache;
+    private final double refreshAheadRatio;
 
+    /**
+     * Plain TTL cache without refresh-ahead.
+     */
     public TokenCache() {
+        this(NO_REFRESH_AHEAD);
+    }
+
+    /**
+     * @param refreshAheadRatio share of the TTL after which a token is due for renewal, in (0, 1]; 1 disables it
+     */
+    public TokenCache(double refreshAheadRatio) {
+        if (!(refreshAheadRatio > 0 && refreshAheadRatio <= 1)) {
+            throw new IllegalArgumentException("refreshAheadRatio must be in (0, 1]");
+        }
+        this.refreshAheadRatio = refreshAheadRatio;
         this.cache = Caffeine.newBuilder()
+                .maximumSize(MAX_ENTRIES)
                 .expireAfter(new Expiry<String, Entry>() {
                     @Override
                     public long expireAfterCreate(String key, Entry value, long currentTime) {
@@ -38,15 +63,42 @@ public final class TokenCache {
                 .build();
     }
 
+    /**
+     * Process-wide cache used by registry clients unless they are given their own, one per refresh-ahead ratio;
+     * keys carry the registry and a credentials fingerprint, so clients of the same registry and account reuse
+     * each other's tokens.
+     */
+    public static TokenCache shared(double refreshAheadRatio) {
+        return PROCESS_WIDE.computeIfAbsent(refreshAheadRatio, TokenCache::new);
+    }
+
     public Optional<String> get(String key) {
         Entry e = cache.getIfPresent(key);
         return e != null ? Optional.of(e.token) : Optional.empty();
     }
 
     public void put(String key, String token, long ttlSeconds) {
-        cache.put(key, new Entry(token, ttlSeconds));
+        cache.put(key, new Entry(token, ttlSeconds, System.nanoTime(), new AtomicBoolean()));
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * True exactly once per cached token, for the first caller after it is due for renewal; that caller fetches
+     * the new token and {@link #put}s it. A failed renewal is not retried, the token then simply expires.
+     */
+    public boolean tryStartRefresh(String key) {
+        Entry e = cache.getIfPresent(key);
+        if (e == null || refreshAheadRatio >= 1) {
+            return false;
+        }
+        long age = System.nanoTime() - e.storedAt();
+        long due = (long) (TimeUnit.SECONDS.toNanos(e.ttlSeconds()) * refreshAheadRatio);
+        return age >= due && e.refreshing().compareAndSet(false, true);
     }
 
-    private record Entry(String token, long ttlSeconds) { }
+    private record Entry(String token, long ttlSeconds, long storedAt, AtomicBoolean refreshing) { }
 }
 
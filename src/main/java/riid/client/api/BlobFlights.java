@@ -0,0 +1,191 @@
+package riid.client.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import riid.concurrent.Futures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Concurrent fetches of the same repository and digest share one download.
+ * The download goes into a file owned by the flight, next to the first caller's target, so no caller can rename
+ * or delete it while others still wait. Before any caller completes, each one still waiting gets the blob in its
+ * own target (the first caller by a rename, the others by a copy); a blob that ended up in the cache is handed
+ * out as the cache entry without copies. The download is aborted only when every caller cancelled.
+ */
+final class BlobFlights {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlobFlights.class);
+
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @param copier   runs the hand-out to the callers, off the network callback
+     * @param download writes the blob into the given file; called only if no download of the blob is in flight
+     */
+    CompletableFuture<BlobResult> fetch(BlobRequest request,
+                                        File target,
+                                        Executor copier,
+                                        Function<File, CompletableFuture<BlobResult>> download) {
+        Key key = new Key(request.repository(), request.digest());
+        Caller caller = new Caller(target, new CompletableFuture<>());
+        boolean[] leader = new boolean[1];
+        Flight flight = flights.compute(key, (k, existing) -> {
+            if (existing != null && existing.join(caller)) {
+                return existing;
+            }
+            leader[0] = true;
+            Flight created = new Flight(key);
+            created.join(caller);
+            return created;
+        });
+        if (leader[0]) {
+            flight.start(target, copier, download);
+        }
+        caller.result().whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException) {
+                flight.leave();
+            }
+        });
+        return caller.result();
+    }
+
+    private record Key(String repository, String digest) {
+    }
+
+    private record Caller(File target, CompletableFuture<BlobResult> result) {
+    }
+
+    private final class Flight {
+        private final Key key;
+        private final List<Caller> callers = new ArrayList<>(); // guarded by this
+        private int waiting; // guarded by this
+        private boolean sealed; // guarded by this; finished or abandoned, nobody may join any more
+        private CompletableFuture<BlobResult> source; // guarded by this
+
+        Flight(Key key) {
+            this.key = key;
+        }
+
+        synchronized boolean join(Caller caller) {
+            if (sealed) {
+                return false;
+            }
+            callers.add(caller);
+            waiting++;
+            return true;
+        }
+
+        void start(File target, Executor copier, Function<File, CompletableFuture<BlobResult>> download) {
+            Path part = null;
+            CompletableFuture<BlobResult> loaded;
+            try {
+                part = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(), ".flight-", ".part");
+                loaded = download.apply(part.toFile());
+            } catch (IOException e) {
+                loaded = CompletableFuture.failedFuture(new UncheckedIOException(e));
+            } catch (RuntimeException | Error e) {
+                loaded = CompletableFuture.failedFuture(e);
+            }
+            boolean abandoned;
+            synchronized (this) {
+                source = loaded;
+                abandoned = sealed;
+            }
+            if (abandoned) {
+                loaded.cancel(true);
+            }
+            Path file = part;
+            loaded.whenComplete((blob, failure) -> {
+                List<Caller> served = seal();
+                if (failure != null) {
+                    deleteQuietly(file);
+                    Throwable cause = Futures.unwrap(failure);
+                    served.forEach(c -> c.result().completeExceptionally(cause));
+                    return;
+                }
+                try {
+                    copier.execute(() -> handOut(blob, file, served));
+                } catch (RejectedExecutionException e) {
+                    handOut(blob, file, served); // the client is closing: finish on this thread
+                }
+            });
+        }
+
+        private List<Caller> seal() {
+            List<Caller> served;
+            synchronized (this) {
+                sealed = true;
+                served = List.copyOf(callers);
+            }
+            flights.remove(key, this);
+            return served;
+        }
+
+        void leave() {
+            CompletableFuture<BlobResult> abandoned;
+            synchronized (this) {
+                waiting--;
+                if (waiting > 0 || sealed) {
+                    return;
+                }
+                sealed = true;
+                abandoned = source;
+            }
+            flights.remove(key, this);
+            if (abandoned != null) {
+                abandoned.cancel(true);
+            }
+        }
+    }
+
+    private static void handOut(BlobResult blob, Path file, List<Caller> served) {
+        List<Caller> live = served.stream().filter(c -> !c.result().isDone()).toList();
+        if (!Path.of(blob.path()).toAbsolutePath().equals(file.toAbsolutePath())) {
+            deleteQuietly(file); // stored elsewhere (a cache entry): everybody reads it there
+            live.forEach(c -> c.result().complete(blob));
+            return;
+        }
+        // copies first, then the first caller (usually the one next to the file) gets it by a rename
+        for (int i = live.size() - 1; i >= 0; i--) {
+            Caller caller = live.get(i);
+            try {
+                Path target = caller.target().toPath();
+                if (i == 0) {
+                    Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                caller.result().complete(new BlobResult(
+                        blob.digest(), blob.size(), blob.mediaType(), caller.target().getAbsolutePath()));
+            } catch (IOException e) {
+                caller.result().completeExceptionally(new UncheckedIOException(e));
+            }
+        }
+        deleteQuietly(file); // nobody was left to take it, or the rename failed
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}: {}", file, e.getMessage());
+        }
+    }
+}
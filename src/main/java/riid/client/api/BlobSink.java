@@ -2,6 +2,8 @@ package riid.client.api;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Abstraction for a blob download sink.
@@ -12,6 +14,14 @@ public interface BlobSink extends AutoCloseable {
      */
     OutputStream open() throws IOException;
 
+    /**
+     * Open a channel to write blob bytes; sinks that can take ByteBuffers directly should override this
+     * to skip the byte[] copy of a wrapped stream.
+     */
+    default WritableByteChannel openChannel() throws IOException {
+        return Channels.newChannel(open());
+    }
+
     /**
      * Optional locator for the stored blob (file path or opaque handle).
      */
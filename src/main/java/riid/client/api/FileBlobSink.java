@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * File-based BlobSink.
@@ -20,6 +23,15 @@ public final class FileBlobSink implements BlobSink {
         return new FileOutputStream(targetFile);
     }
 
+    /**
+     * FileChannel, so response buffers are written to the file without an intermediate byte[].
+     */
+    @Override
+    public WritableByteChannel openChannel() throws IOException {
+        return FileChannel.open(targetFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
     @Override
     public String locator() {
         return targetFile.getAbsolutePath();
@@ -0,0 +1,53 @@
+package riid.client.api;
+
+import java.util.Arrays;
+
+/**
+ * Recent time-to-first-byte samples and error rate of one mirror.
+ * Mirrors are ranked by median latency (inflated by the error rate); the hedge delay is a high percentile.
+ */
+final class MirrorStats {
+    private static final int WINDOW = 64;
+    private static final int MIN_SAMPLES = 8;
+    private static final double ERROR_WEIGHT = 0.2;
+    private static final double ERROR_PENALTY = 4.0;
+    private static final double UNSAMPLED = 1e15; // rank mirrors without samples last, in configured order
+
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+    private double errorRate;
+
+    synchronized void recordLatency(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+        errorRate *= 1 - ERROR_WEIGHT;
+    }
+
+    synchronized void recordFailure() {
+        errorRate += ERROR_WEIGHT * (1 - errorRate);
+    }
+
+    /**
+     * Lower is better.
+     */
+    synchronized double score() {
+        double base = count == 0 ? UNSAMPLED : percentile(0.5);
+        return base * (1 + ERROR_PENALTY * errorRate);
+    }
+
+    synchronized long hedgeDelayNanos(double percentile, long initialNanos, long minNanos) {
+        if (count < MIN_SAMPLES) {
+            return initialNanos;
+        }
+        return Math.max(minNanos, percentile(percentile));
+    }
+
+    private long percentile(double p) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.clamp(index, 0, count - 1)];
+    }
+}
@@ -0,0 +1,382 @@
+package riid.client.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.util.thread.Scheduler;
+import riid.cache.CacheAdapter;
+import riid.cache.TokenCache;
+import riid.client.core.config.AuthConfig;
+import riid.client.core.config.BlobDownloadConfig;
+import riid.client.core.config.CentralRegistryConfig;
+import riid.client.core.config.HedgeConfig;
+import riid.client.core.config.RegistryEndpoint;
+import riid.client.core.error.ClientError;
+import riid.client.core.error.ClientException;
+import riid.client.core.model.manifest.Manifest;
+import riid.client.core.model.manifest.TagList;
+import riid.client.http.HttpClientConfig;
+import riid.client.http.HttpClientFactory;
+import riid.client.http.HttpExecutor;
+import riid.client.service.AuthService;
+import riid.client.service.BlobService;
+import riid.client.service.ManifestService;
+import riid.concurrent.Futures;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * RegistryClient over all mirrors of a {@link CentralRegistryConfig}.
+ * Manifests and blobs go to the best-ranked mirror (lowest recent time to first byte); if it has produced no bytes
+ * within the configured percentile of its latency, the same request is hedged to the next mirror. The first
+ * response to finish wins and the other request is cancelled. A failed request falls over to the next mirror.
+ * Tag lists and HEAD requests go to the best-ranked mirror only.
+ * Each blob attempt writes its own spare file next to the target and leaves the cache alone; the winner is moved
+ * onto the target and, with a cache adapter, put into the cache once (the result then points at the cache entry,
+ * as with {@link RegistryClientImpl}).
+ * Per-host concurrency limits of a dispatcher apply to all mirrors together, see {@link #registryHost()}.
+ */
+public final class MultiEndpointRegistryClient implements RegistryClient, AutoCloseable {
+    private static final String PULL_SCOPE_TEMPLATE = "repository:%s:pull";
+    private static final String BLOB_IO_ERROR = "Blob IO error";
+    private static final int MAX_CONCURRENT_ATTEMPTS = 2;
+
+    private final List<Mirror> mirrors;
+    private final HedgeConfig hedgeConfig;
+    private final org.eclipse.jetty.client.HttpClient jettyClient;
+    private final org.eclipse.jetty.client.HttpClient cdnClient;
+    private final ManifestService manifestService;
+    private final BlobService blobService;
+    private final BlobFlights blobFlights = new BlobFlights();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public MultiEndpointRegistryClient(CentralRegistryConfig registries,
+                                       HttpClientConfig httpConfig,
+                                       CacheAdapter cacheAdapter) {
+        this(registries, httpConfig, cacheAdapter, new HedgeConfig());
+    }
+
+    public MultiEndpointRegistryClient(CentralRegistryConfig registries,
+                                       HttpClientConfig httpConfig,
+                                       CacheAdapter cacheAdapter,
+                                       HedgeConfig hedgeConfig) {
+        this(registries, httpConfig, cacheAdapter, hedgeConfig, new BlobDownloadConfig(),
+                TokenCache.shared(AuthConfig.DEFAULT_REFRESH_AHEAD_RATIO));
+    }
+
+    /**
+     * @param blobConfig segmenting, resumes and the CDN connection pool of blob downloads
+     * @param tokens     where Bearer tokens are cached, see {@link RegistryClientImpl}
+     */
+    public MultiEndpointRegistryClient(CentralRegistryConfig registries,
+                                       HttpClientConfig httpConfig,
+                                       CacheAdapter cacheAdapter,
+                                       HedgeConfig hedgeConfig,
+                                       BlobDownloadConfig blobConfig,
+                                       TokenCache tokens) {
+        if (registries.endpoints().isEmpty()) {
+            throw new IllegalArgumentException("At least one registry endpoint is required");
+        }
+        this.hedgeConfig = hedgeConfig != null ? hedgeConfig : new HedgeConfig();
+        ObjectMapper mapper = new ObjectMapper();
+        BlobDownloadConfig blobs = blobConfig != null ? blobConfig : new BlobDownloadConfig();
+        HttpClientConfig cdnConfig = httpConfig.withPool(blobs.cdnPool());
+        this.jettyClient = HttpClientFactory.create(httpConfig);
+        this.cdnClient = HttpClientFactory.create(cdnConfig);
+        HttpExecutor http = new HttpExecutor(jettyClient, httpConfig);
+        AuthService authService = new AuthService(http, mapper, tokens);
+        this.manifestService = new ManifestService(http, authService, mapper);
+        this.blobService = new BlobService(http, new HttpExecutor(cdnClient, cdnConfig), authService, cacheAdapter,
+                blobs);
+        this.mirrors = registries.endpoints().stream()
+                .map(endpoint -> new Mirror(endpoint,
+                        new RegistryClientImpl(endpoint, http, authService, manifestService, blobService, mapper),
+                        new MirrorStats()))
+                .toList();
+    }
+
+    @Override
+    public ManifestResult fetchManifest(String repository, String reference) {
+        return Futures.join(fetchManifestAsync(repository, reference));
+    }
+
+    /**
+     * Manifests are small, so time to first byte is measured up to the complete response.
+     */
+    @Override
+    public CompletableFuture<ManifestResult> fetchManifestAsync(String repository, String reference) {
+        String scope = pullScope(repository);
+        return new HedgedCall<ManifestResult>(mirror -> {
+            var manifest = manifestService.fetchManifestAsync(mirror.endpoint(), repository, reference, scope);
+            return new Attempt<>(manifest, manifest.thenApply(m -> null));
+        }).start();
+    }
+
+    @Override
+    public BlobResult fetchConfig(String repository, Manifest manifest, File target) {
+        BlobRequest req = new BlobRequest(
+                repository,
+                manifest.config().digest(),
+                manifest.config().size(),
+                manifest.config().mediaType());
+        return fetchBlob(req, target);
+    }
+
+    @Override
+    public BlobResult fetchBlob(BlobRequest request, File target) {
+        return Futures.join(fetchBlobAsync(request, target));
+    }
+
+    /**
+     * Concurrent calls for the same repository and digest share one (possibly hedged) download, see
+     * {@link BlobFlights}.
+     * Every attempt writes into its own temporary file next to target; the winner's file replaces target, so a
+     * cancelled attempt can never touch the result.
+     */
+    @Override
+    public CompletableFuture<BlobResult> fetchBlobAsync(BlobRequest request, File target) {
+        return blobFlights.fetch(request, target, jettyClient.getExecutor(), file -> hedgedBlob(request, file));
+    }
+
+    @Override
+    public Optional<Long> headBlob(String repository, String digest) {
+        return ranked().getFirst().client().headBlob(repository, digest);
+    }
+
+    @Override
+    public TagList listTags(String repository, Integer n, String last) {
+        return ranked().getFirst().client().listTags(repository, n, last);
+    }
+
+    /**
+     * {@link RegistryClientImpl#prewarm} against every mirror, so a hedge or failover starts warm as well.
+     */
+    public CompletableFuture<Void> prewarm(List<String> repositories) {
+        return CompletableFuture.allOf(mirrors.stream()
+                .map(mirror -> mirror.client().prewarm(repositories))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * All mirror hosts joined. Known limitation: the mirror is picked inside this client, after a dispatcher took
+     * its registry slot, so a per-host limiter (SimpleRequestDispatcher's AIMD window) sees the mirrors as one
+     * registry and a slow mirror lowers the limit for all of them. Hedging and ranking, not the limiter, are what
+     * keep a slow mirror from dominating.
+     */
+    @Override
+    public String registryHost() {
+        return mirrors.stream().map(mirror -> mirror.client().registryHost()).collect(Collectors.joining(","));
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                jettyClient.stop();
+            } finally {
+                cdnClient.stop();
+            }
+        }
+    }
+
+    private CompletableFuture<BlobResult> hedgedBlob(BlobRequest request, File target) {
+        String scope = pullScope(request.repository());
+        List<File> spares = new CopyOnWriteArrayList<>();
+        CompletableFuture<BlobResult> hedged = new HedgedCall<BlobResult>(mirror -> {
+            File file = spareFor(target, spares);
+            CompletableFuture<Void> firstBytes = new CompletableFuture<>();
+            var blob = blobService.fetchAttemptAsync(mirror.endpoint(), request, file, scope,
+                    () -> firstBytes.complete(null));
+            return new Attempt<>(blob, firstBytes);
+        }).start();
+        // losers' files are removed before the result is visible to callers
+        hedged.whenComplete((blob, failure) -> {
+            if (failure != null) {
+                spares.forEach(File::delete);
+            }
+        });
+        return Futures.map(hedged, blob -> {
+            try {
+                return blobService.cacheDownloaded(adopt(blob, target, spares));
+            } finally {
+                spares.forEach(File::delete);
+            }
+        });
+    }
+
+    private static File spareFor(File target, List<File> spares) {
+        try {
+            File spare = File.createTempFile("hedge-", ".part", target.getAbsoluteFile().getParentFile());
+            spares.add(spare);
+            return spare;
+        } catch (IOException e) {
+            throw new ClientException(
+                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                    BLOB_IO_ERROR,
+                    e);
+        }
+    }
+
+    /**
+     * Move the winning download into target, so callers find it where they asked for it.
+     */
+    private static BlobResult adopt(BlobResult blob, File target, List<File> spares) {
+        for (File spare : spares) {
+            if (spare.getAbsolutePath().equals(blob.path())) {
+                try {
+                    Files.move(spare.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new ClientException(
+                            new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                            BLOB_IO_ERROR,
+                            e);
+                }
+                return new BlobResult(blob.digest(), blob.size(), blob.mediaType(), target.getAbsolutePath());
+            }
+        }
+        return blob;
+    }
+
+    private List<Mirror> ranked() {
+        List<Mirror> order = new ArrayList<>(mirrors);
+        order.sort(Comparator.comparingDouble(mirror -> mirror.stats().score())); // stable: ties keep config order
+        return order;
+    }
+
+    private static String pullScope(String repository) {
+        return PULL_SCOPE_TEMPLATE.formatted(repository);
+    }
+
+    private record Mirror(RegistryEndpoint endpoint, RegistryClientImpl client, MirrorStats stats) { }
+
+    /**
+     * One request to one mirror; firstBytes completes when the mirror started answering.
+     */
+    private record Attempt<T>(CompletableFuture<T> result, CompletableFuture<Void> firstBytes) { }
+
+    /**
+     * Runs a request against the ranked mirrors: hedges while the current attempt is silent,
+     * falls over on failure, completes with the first success and cancels the rest.
+     */
+    private final class HedgedCall<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Function<Mirror, Attempt<T>> starter;
+        private final Deque<Mirror> pending;
+        private final List<CompletableFuture<T>> running = new ArrayList<>(); // guarded by this
+        private int active; // guarded by this
+
+        HedgedCall(Function<Mirror, Attempt<T>> starter) {
+            this.starter = starter;
+            this.pending = new ArrayDeque<>(ranked());
+        }
+
+        CompletableFuture<T> start() {
+            result.whenComplete((value, failure) -> cancelRunning());
+            launch();
+            return result;
+        }
+
+        private void launch() {
+            Mirror mirror;
+            synchronized (this) {
+                mirror = pending.pollFirst();
+                if (mirror == null || result.isDone()) {
+                    return;
+                }
+                active++;
+            }
+            long started = System.nanoTime();
+            Attempt<T> attempt = attempt(mirror);
+            synchronized (this) {
+                running.add(attempt.result());
+            }
+            if (result.isDone()) {
+                attempt.result().cancel(true);
+            }
+            attempt.firstBytes().thenRun(() -> mirror.stats().recordLatency(System.nanoTime() - started));
+            Scheduler.Task hedge = scheduleHedge(mirror, attempt);
+            attempt.result().whenComplete((value, failure) -> {
+                if (hedge != null) {
+                    hedge.cancel();
+                }
+                if (failure == null) {
+                    result.complete(value);
+                    return;
+                }
+                if (Futures.unwrap(failure) instanceof CancellationException) {
+                    if (!attempt.firstBytes().isDone()) {
+                        // lost while still silent: the elapsed time is a lower bound of its latency
+                        mirror.stats().recordLatency(System.nanoTime() - started);
+                    }
+                    return;
+                }
+                mirror.stats().recordFailure();
+                onFailure(Futures.unwrap(failure));
+            });
+        }
+
+        private Attempt<T> attempt(Mirror mirror) {
+            try {
+                return starter.apply(mirror);
+            } catch (RuntimeException e) {
+                return new Attempt<>(CompletableFuture.failedFuture(e), new CompletableFuture<>());
+            }
+        }
+
+        private Scheduler.Task scheduleHedge(Mirror mirror, Attempt<T> attempt) {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return null;
+                }
+            }
+            long delay = mirror.stats().hedgeDelayNanos(hedgeConfig.percentile(),
+                    hedgeConfig.initialDelay().toNanos(), hedgeConfig.minDelay().toNanos());
+            return jettyClient.getScheduler().schedule(() -> {
+                boolean hedge;
+                synchronized (this) {
+                    hedge = active < MAX_CONCURRENT_ATTEMPTS;
+                }
+                if (hedge && !attempt.firstBytes().isDone() && !result.isDone()) {
+                    launch();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        private void onFailure(Throwable cause) {
+            boolean failover;
+            boolean exhausted;
+            synchronized (this) {
+                active--;
+                failover = active == 0 && !pending.isEmpty();
+                exhausted = active == 0 && pending.isEmpty();
+            }
+            if (exhausted) {
+                result.completeExceptionally(cause);
+            } else if (failover) {
+                launch();
+            }
+        }
+
+        private void cancelRunning() {
+            List<CompletableFuture<T>> attempts;
+            synchronized (this) {
+                attempts = List.copyOf(running);
+            }
+            attempts.forEach(attempt -> attempt.cancel(true));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import riid.client.core.model.manifest.TagList;
 
 import java.io.File;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * High-level client interface.
@@ -12,13 +13,34 @@ import java.util.Optional;
 public interface RegistryClient {
     ManifestResult fetchManifest(String repository, String reference);
 
+    /**
+     * Non-blocking {@link #fetchManifest}; cancelling the future aborts the request.
+     */
+    CompletableFuture<ManifestResult> fetchManifestAsync(String repository, String reference);
+
     BlobResult fetchConfig(String repository, Manifest manifest, File target);
 
+    /**
+     * Download a blob into target. The stored location is {@link BlobResult#path()}, which is not necessarily
+     * target (e.g. when the blob went to a cache or was shared with a concurrent download of the same digest).
+     */
     BlobResult fetchBlob(BlobRequest request, File target);
 
+    /**
+     * Non-blocking {@link #fetchBlob}; cancelling the future aborts the download.
+     */
+    CompletableFuture<BlobResult> fetchBlobAsync(BlobRequest request, File target);
+
     Optional<Long> headBlob(String repository, String digest);
 
     TagList listTags(String repository, Integer n, String last);
 
+    /**
+     * Registry host (with port, if any) this client talks to; used to key per-registry limits.
+     */
+    default String registryHost() {
+        return "default";
+    }
+
 }
 
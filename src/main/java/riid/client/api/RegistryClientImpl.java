@@ -1,8 +1,13 @@
 package riid.client.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import riid.cache.CacheAdapter;
 import riid.cache.TokenCache;
+import riid.client.core.config.AuthConfig;
+import riid.client.core.config.BlobDownloadConfig;
+import riid.client.core.config.ClientConfig;
 import riid.client.core.config.RegistryEndpoint;
 import riid.client.core.error.ClientException;
 import riid.client.core.error.ClientError;
@@ -17,40 +22,108 @@ import riid.client.http.HttpResult;
 import riid.client.service.AuthService;
 import riid.client.service.BlobService;
 import riid.client.service.ManifestService;
+import riid.concurrent.Futures;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Default RegistryClient implementation.
  */
 public final class RegistryClientImpl implements RegistryClient, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegistryClientImpl.class);
     private static final String PULL_SCOPE_TEMPLATE = "repository:%s:pull";
 
     private final RegistryEndpoint endpoint;
     private final org.eclipse.jetty.client.HttpClient jettyClient;
+    private final org.eclipse.jetty.client.HttpClient cdnClient;
     private final HttpExecutor http;
     private final AuthService authService;
     private final ManifestService manifestService;
     private final BlobService blobService;
     private final ObjectMapper mapper;
+    private final BlobFlights blobFlights = new BlobFlights();
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public RegistryClientImpl(RegistryEndpoint endpoint,
                               HttpClientConfig httpConfig,
                               CacheAdapter cacheAdapter) {
+        this(endpoint, httpConfig, cacheAdapter, new BlobDownloadConfig());
+    }
+
+    public RegistryClientImpl(RegistryEndpoint endpoint,
+                              HttpClientConfig httpConfig,
+                              CacheAdapter cacheAdapter,
+                              BlobDownloadConfig blobConfig) {
+        this(endpoint, httpConfig, cacheAdapter, blobConfig,
+                TokenCache.shared(AuthConfig.DEFAULT_REFRESH_AHEAD_RATIO));
+    }
+
+    /**
+     * Client set up from the client section of the application config (HTTP, blob download and auth settings).
+     */
+    public RegistryClientImpl(RegistryEndpoint endpoint, ClientConfig config, CacheAdapter cacheAdapter) {
+        this(endpoint, config.http(), cacheAdapter, config.blob(),
+                TokenCache.shared(config.auth().refreshAheadRatio()), config.auth().defaultTokenTtlSeconds());
+    }
+
+    /**
+     * @param tokens where Bearer tokens are cached; by default {@link TokenCache#shared(double)}, so every client
+     *               of the same registry and credentials in the process reuses one token per scope
+     */
+    public RegistryClientImpl(RegistryEndpoint endpoint,
+                              HttpClientConfig httpConfig,
+                              CacheAdapter cacheAdapter,
+                              BlobDownloadConfig blobConfig,
+                              TokenCache tokens) {
+        this(endpoint, httpConfig, cacheAdapter, blobConfig, tokens, AuthConfig.DEFAULT_TTL_SECONDS);
+    }
+
+    private RegistryClientImpl(RegistryEndpoint endpoint,
+                               HttpClientConfig httpConfig,
+                               CacheAdapter cacheAdapter,
+                               BlobDownloadConfig blobConfig,
+                               TokenCache tokens,
+                               long defaultTokenTtlSeconds) {
         this.endpoint = Objects.requireNonNull(endpoint);
         this.mapper = new ObjectMapper();
+        BlobDownloadConfig blobs = blobConfig != null ? blobConfig : new BlobDownloadConfig();
+        HttpClientConfig cdnConfig = httpConfig.withPool(blobs.cdnPool());
         this.jettyClient = HttpClientFactory.create(httpConfig);
+        this.cdnClient = HttpClientFactory.create(cdnConfig);
         this.http = new HttpExecutor(jettyClient, httpConfig);
-        this.authService = new AuthService(http, mapper, new TokenCache());
+        this.authService = new AuthService(http, mapper, tokens, defaultTokenTtlSeconds);
         this.manifestService = new ManifestService(http, authService, mapper);
-        this.blobService = new BlobService(http, authService, cacheAdapter);
+        this.blobService = new BlobService(http, new HttpExecutor(cdnClient, cdnConfig), authService, cacheAdapter,
+                blobs);
+    }
+
+    /**
+     * Client for one mirror of {@link MultiEndpointRegistryClient}: the services (and the Jetty client behind
+     * them) are shared and owned by the caller, so {@link #close()} leaves them running.
+     */
+    RegistryClientImpl(RegistryEndpoint endpoint,
+                       HttpExecutor http,
+                       AuthService authService,
+                       ManifestService manifestService,
+                       BlobService blobService,
+                       ObjectMapper mapper) {
+        this.endpoint = Objects.requireNonNull(endpoint);
+        this.mapper = mapper;
+        this.jettyClient = null;
+        this.cdnClient = null;
+        this.http = http;
+        this.authService = authService;
+        this.manifestService = manifestService;
+        this.blobService = blobService;
     }
 
     @Override
@@ -60,20 +133,37 @@ public final class RegistryClientImpl implements RegistryClient, AutoCloseable {
     }
 
     @Override
-    public BlobResult fetchConfig(String repository, Manifest manifest, File target) {
+    public CompletableFuture<ManifestResult> fetchManifestAsync(String repository, String reference) {
         String scope = pullScope(repository);
+        return manifestService.fetchManifestAsync(endpoint, repository, reference, scope);
+    }
+
+    @Override
+    public BlobResult fetchConfig(String repository, Manifest manifest, File target) {
         BlobRequest req = new BlobRequest(
                 repository,
                 manifest.config().digest(),
                 manifest.config().size(),
                 manifest.config().mediaType());
-        return blobService.fetchBlob(endpoint, req, target, scope);
+        return fetchBlob(req, target);
     }
 
+    /**
+     * Concurrent calls for the same repository and digest share one download, see {@link BlobFlights}.
+     */
     @Override
     public BlobResult fetchBlob(BlobRequest request, File target) {
+        return Futures.join(fetchBlobAsync(request, target));
+    }
+
+    /**
+     * Same sharing as {@link #fetchBlob}; the download is aborted only when every caller of the digest cancelled.
+     */
+    @Override
+    public CompletableFuture<BlobResult> fetchBlobAsync(BlobRequest request, File target) {
         String scope = pullScope(request.repository());
-        return blobService.fetchBlob(endpoint, request, target, scope);
+        return blobFlights.fetch(request, target, http.executor(),
+                file -> blobService.fetchBlobAsync(endpoint, request, file, scope));
     }
 
     @Override
@@ -117,13 +207,48 @@ public final class RegistryClientImpl implements RegistryClient, AutoCloseable {
         }
     }
 
+    /**
+     * Optional warm-up for a fresh client: opens the configured number of pooled connections to the registry
+     * and fetches pull tokens for the given hot repositories, so the first pull skips DNS, handshakes, the
+     * /v2/ ping and the token round trip. Best effort: failures are logged and the future still completes.
+     */
+    public CompletableFuture<Void> prewarm(List<String> repositories) {
+        URI base = HttpRequestBuilder.buildUri(endpoint.scheme(), endpoint.host(), endpoint.port(),
+                RegistryApi.V2_PING);
+        List<CompletableFuture<?>> steps = new ArrayList<>();
+        steps.add(bestEffort(http.preconnect(base), "connections to " + registryHost()));
+        for (String repository : repositories) {
+            steps.add(bestEffort(authService.getAuthHeaderAsync(endpoint, repository, pullScope(repository)),
+                    "token for " + repository));
+        }
+        return CompletableFuture.allOf(steps.toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public String registryHost() {
+        return endpoint.port() > 0 ? endpoint.host() + ":" + endpoint.port() : endpoint.host();
+    }
+
     @Override
     public void close() throws Exception {
-        if (closed.compareAndSet(false, true)) {
-            jettyClient.stop();
+        if (closed.compareAndSet(false, true) && jettyClient != null) {
+            try {
+                jettyClient.stop();
+            } finally {
+                cdnClient.stop();
+            }
         }
     }
 
+    private static CompletableFuture<Void> bestEffort(CompletableFuture<?> step, String what) {
+        return step.handle((value, failure) -> {
+            if (failure != null) {
+                LOGGER.warn("Prewarm of {} failed: {}", what, Futures.unwrap(failure).getMessage());
+            }
+            return null;
+        });
+    }
+
     private static String pullScope(String repository) {
         return PULL_SCOPE_TEMPLATE.formatted(repository);
     }
@@ -141,5 +266,5 @@ public final class RegistryClientImpl implements RegistryClient, AutoCloseable {
         }
         return query.isEmpty() ? null : query.toString();
     }
-}
 
+}
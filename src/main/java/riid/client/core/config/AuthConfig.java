@@ -4,12 +4,25 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * Auth-related configuration.
+ * refreshAheadRatio: share of a token's lifetime after which it is renewed in the background while callers keep
+ * using it, in (0, 1]; 1 disables refresh-ahead, unset (0) means the default.
  */
-public record AuthConfig(@JsonProperty("defaultTokenTtlSeconds") long defaultTokenTtlSeconds) {
+public record AuthConfig(
+        @JsonProperty("defaultTokenTtlSeconds") long defaultTokenTtlSeconds,
+        @JsonProperty("refreshAheadRatio") double refreshAheadRatio
+) {
     public static final long DEFAULT_TTL_SECONDS = 300L;
+    public static final double DEFAULT_REFRESH_AHEAD_RATIO = 0.8;
+
+    public AuthConfig {
+        refreshAheadRatio = refreshAheadRatio > 0 ? refreshAheadRatio : DEFAULT_REFRESH_AHEAD_RATIO;
+    }
+
+    public AuthConfig(long defaultTokenTtlSeconds) {
+        this(defaultTokenTtlSeconds, DEFAULT_REFRESH_AHEAD_RATIO);
+    }
 
     public AuthConfig() {
         this(DEFAULT_TTL_SECONDS);
     }
 }
-
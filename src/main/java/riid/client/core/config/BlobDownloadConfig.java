@@ -0,0 +1,44 @@
+package riid.client.core.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import riid.client.http.ConnectionPoolConfig;
+
+/**
+ * Blob download settings.
+ * Blobs of known size at or above segmentThresholdBytes are fetched as {@code segments} parallel Range requests,
+ * each written at its offset of one preallocated file; segments = 1 disables segmented downloads.
+ * A single-stream download that breaks mid-body is resumed with a Range request up to maxResumes times.
+ * Blob redirects to a CDN are downloaded through a separate client whose connection pool is cdnPool.
+ */
+public record BlobDownloadConfig(
+        @JsonProperty("segmentThresholdBytes") long segmentThresholdBytes,
+        @JsonProperty("segments") int segments,
+        @JsonProperty("maxResumes") int maxResumes,
+        @JsonProperty("cdnPool") ConnectionPoolConfig cdnPool
+) {
+    private static final long DEFAULT_SEGMENT_THRESHOLD = 64L * 1024 * 1024;
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int DEFAULT_MAX_RESUMES = 3;
+
+    public BlobDownloadConfig {
+        segmentThresholdBytes = segmentThresholdBytes > 0 ? segmentThresholdBytes : DEFAULT_SEGMENT_THRESHOLD;
+        segments = segments > 0 ? segments : DEFAULT_SEGMENTS;
+        maxResumes = maxResumes >= 0 ? maxResumes : DEFAULT_MAX_RESUMES;
+        cdnPool = cdnPool != null ? cdnPool : new ConnectionPoolConfig();
+    }
+
+    public BlobDownloadConfig() {
+        this(DEFAULT_SEGMENT_THRESHOLD, DEFAULT_SEGMENTS);
+    }
+
+    public BlobDownloadConfig(long segmentThresholdBytes, int segments) {
+        this(segmentThresholdBytes, segments, DEFAULT_MAX_RESUMES, null);
+    }
+
+    /**
+     * Whether a blob of this size (-1 if unknown) should be downloaded in segments.
+     */
+    public boolean segmented(long sizeBytes) {
+        return segments > 1 && sizeBytes >= segmentThresholdBytes && sizeBytes >= segments;
+    }
+}
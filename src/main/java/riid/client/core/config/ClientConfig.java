@@ -11,10 +11,17 @@ import java.util.List;
 public record ClientConfig(
         @JsonProperty("http") HttpClientConfig http,
         @JsonProperty("auth") AuthConfig auth,
-        @JsonProperty("registries") List<RegistryEndpoint> registries
+        @JsonProperty("registries") List<RegistryEndpoint> registries,
+        @JsonProperty("blob") BlobDownloadConfig blob
 ) {
     public ClientConfig {
         registries = registries == null ? List.of() : List.copyOf(registries);
         http = http == null ? new HttpClientConfig() : http;
+        auth = auth == null ? new AuthConfig() : auth;
+        blob = blob == null ? new BlobDownloadConfig() : blob;
+    }
+
+    public ClientConfig(HttpClientConfig http, AuthConfig auth, List<RegistryEndpoint> registries) {
+        this(http, auth, registries, null);
     }
 }
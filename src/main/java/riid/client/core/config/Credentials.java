@@ -3,6 +3,9 @@ package riid.client.core.config;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import riid.client.core.model.Digests;
+
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -46,4 +49,30 @@ public final class Credentials {
     public Optional<String> identityToken() {
         return Optional.ofNullable(identityTokenValue);
     }
+
+    /**
+     * SHA-256 of the secret fields; identifies the account in cache keys without keeping the secret there.
+     */
+    public String fingerprint() {
+        String joined = usernameValue + '\0' + passwordValue + '\0' + identityTokenValue;
+        return Digests.sha256Hex(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Credentials other)) {
+            return false;
+        }
+        return Objects.equals(usernameValue, other.usernameValue)
+                && Objects.equals(passwordValue, other.passwordValue)
+                && Objects.equals(identityTokenValue, other.identityTokenValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(usernameValue, passwordValue, identityTokenValue);
+    }
 }
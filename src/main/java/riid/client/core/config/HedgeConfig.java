@@ -0,0 +1,35 @@
+package riid.client.core.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+/**
+ * When a multi-mirror client sends a second (hedged) request.
+ * The hedge goes out once the first mirror has produced no bytes for the given percentile of its recent
+ * time-to-first-byte samples; initialDelay is used until enough samples exist, minDelay bounds the delay from below.
+ */
+public record HedgeConfig(
+        @JsonProperty("percentile") double percentile,
+        @JsonProperty("initialDelay") Duration initialDelay,
+        @JsonProperty("minDelay") Duration minDelay
+) {
+    public static final double DEFAULT_PERCENTILE = 0.95;
+    private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMillis(500);
+    private static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(20);
+
+    public HedgeConfig {
+        initialDelay = initialDelay != null ? initialDelay : DEFAULT_INITIAL_DELAY;
+        minDelay = minDelay != null ? minDelay : DEFAULT_MIN_DELAY;
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in (0, 1]");
+        }
+        if (initialDelay.isNegative() || minDelay.isNegative()) {
+            throw new IllegalArgumentException("hedge delays must be non-negative");
+        }
+    }
+
+    public HedgeConfig() {
+        this(DEFAULT_PERCENTILE, DEFAULT_INITIAL_DELAY, DEFAULT_MIN_DELAY);
+    }
+}
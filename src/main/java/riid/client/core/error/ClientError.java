@@ -12,7 +12,7 @@ public sealed interface ClientError permits ClientError.Auth, ClientError.Http,
 
     enum AuthKind { UNEXPECTED_PING_STATUS, MISSING_CHALLENGE, TOKEN_FAILED, NO_TOKEN }
 
-    enum HttpKind { RETRY_EXHAUSTED, BAD_STATUS }
+    enum HttpKind { RETRY_EXHAUSTED, BAD_STATUS, RATE_LIMITED, CIRCUIT_OPEN }
 
     enum ParseKind { MANIFEST, TOKEN, CONFIG }
 }
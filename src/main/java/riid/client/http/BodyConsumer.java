@@ -0,0 +1,27 @@
+package riid.client.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a streamed response body chunk by chunk (see {@link HttpExecutor#streamAsync}).
+ * Callbacks run on Jetty client threads and must not block on the network.
+ */
+public interface BodyConsumer<T> {
+    /**
+     * Consume one chunk. The buffer is only valid for the duration of the call.
+     */
+    void onContent(ByteBuffer chunk) throws IOException;
+
+    /**
+     * Called once the whole body was received.
+     */
+    T complete() throws IOException;
+
+    /**
+     * Called instead of {@link #complete()} when the exchange failed or was cancelled.
+     */
+    default void abort(Throwable failure) {
+        // nothing to release by default
+    }
+}
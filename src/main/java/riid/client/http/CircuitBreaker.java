@@ -0,0 +1,114 @@
+package riid.client.http;
+
+import java.util.Optional;
+
+/**
+ * Closed / open / half-open breaker for one host. Times are System.nanoTime().
+ * Every permitted request must be reported exactly once: {@link #onSuccess}, {@link #onFailure} or
+ * {@link #onIgnored} (cancelled, or failed for a reason that says nothing about the host).
+ * Each state change starts a new generation; outcomes of permits from an earlier generation are ignored, and in
+ * half-open only the trial permit may close or reopen the circuit.
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private long generation;
+    private int consecutiveFailures;
+    private long openedAt;
+    private Permit regular = new Permit(0); // shared by requests sent while closed
+    private Permit probe = Permit.NONE; // the half-open trial in flight, if any
+
+    CircuitBreaker(CircuitBreakerConfig config) {
+        this.failureThreshold = config.failureThreshold();
+        this.openNanos = config.openDuration().toNanos();
+    }
+
+    /**
+     * Permit to send a request now, if any; after the open period exactly one trial is let through.
+     */
+    synchronized Optional<Permit> tryAcquire(long now) {
+        switch (state) {
+            case CLOSED -> {
+                return Optional.of(regular);
+            }
+            case OPEN -> {
+                if (now - openedAt < openNanos) {
+                    return Optional.empty();
+                }
+                transition(State.HALF_OPEN);
+                probe = new Permit(generation);
+                return Optional.of(probe);
+            }
+            default -> {
+                if (!Permit.NONE.equals(probe)) {
+                    return Optional.empty();
+                }
+                probe = new Permit(generation);
+                return Optional.of(probe);
+            }
+        }
+    }
+
+    synchronized void onSuccess(Permit permit) {
+        if (!counts(permit)) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+            regular = new Permit(generation);
+        }
+        consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure(Permit permit, long now) {
+        if (!counts(permit)) {
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            transition(State.OPEN);
+            openedAt = now;
+        }
+    }
+
+    /**
+     * An ignored outcome says nothing about the host; it only frees the trial slot if it was the trial.
+     */
+    synchronized void onIgnored(Permit permit) {
+        if (permit.equals(probe)) {
+            probe = Permit.NONE;
+        }
+    }
+
+    /**
+     * Whether this outcome may change the state: issued in the current generation, and the trial if half-open.
+     */
+    private boolean counts(Permit permit) {
+        if (permit.generation != generation) {
+            return false;
+        }
+        return state == State.CLOSED || state == State.HALF_OPEN && permit.equals(probe);
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+        probe = Permit.NONE;
+    }
+
+    /**
+     * Identity of a permitted request and the generation it was issued in; every trial gets its own.
+     */
+    static final class Permit {
+        static final Permit NONE = new Permit(-1);
+
+        private final long generation;
+
+        Permit(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package riid.client.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+/**
+ * Per-host circuit breaker: opens after failureThreshold consecutive IO failures or 5xx responses, fails requests
+ * fast for openDuration, then lets a single probe request decide whether to close again.
+ */
+public record CircuitBreakerConfig(
+        @JsonProperty("failureThreshold") int failureThreshold,
+        @JsonProperty("openDuration") Duration openDuration
+) {
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    public CircuitBreakerConfig {
+        failureThreshold = failureThreshold > 0 ? failureThreshold : DEFAULT_FAILURE_THRESHOLD;
+        openDuration = openDuration != null ? openDuration : DEFAULT_OPEN_DURATION;
+        if (openDuration.isNegative()) {
+            throw new IllegalArgumentException("openDuration must be non-negative");
+        }
+    }
+
+    public CircuitBreakerConfig() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+}
@@ -0,0 +1,38 @@
+package riid.client.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+/**
+ * Connection pool limits per registry destination (scheme, host, port).
+ * Requests beyond maxConnections wait in a queue of at most maxQueuedRequests; idle connections are closed after
+ * idleTimeout. prewarmConnections is how many connections {@link HttpExecutor#preconnect} opens ahead of use.
+ */
+public record ConnectionPoolConfig(
+        @JsonProperty("maxConnections") int maxConnections,
+        @JsonProperty("maxQueuedRequests") int maxQueuedRequests,
+        @JsonProperty("idleTimeout") Duration idleTimeout,
+        @JsonProperty("prewarmConnections") int prewarmConnections
+) {
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
+    private static final int DEFAULT_PREWARM_CONNECTIONS = 1;
+
+    public ConnectionPoolConfig {
+        maxConnections = maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+        maxQueuedRequests = maxQueuedRequests > 0 ? maxQueuedRequests : DEFAULT_MAX_QUEUED_REQUESTS;
+        idleTimeout = idleTimeout != null ? idleTimeout : DEFAULT_IDLE_TIMEOUT;
+        if (idleTimeout.isNegative()) {
+            throw new IllegalArgumentException("idleTimeout must be non-negative");
+        }
+        if (prewarmConnections < 0 || prewarmConnections > maxConnections) {
+            throw new IllegalArgumentException("prewarmConnections must be in [0, maxConnections]");
+        }
+    }
+
+    public ConnectionPoolConfig() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_QUEUED_REQUESTS, DEFAULT_IDLE_TIMEOUT, DEFAULT_PREWARM_CONNECTIONS);
+    }
+}
@@ -0,0 +1,64 @@
+package riid.client.http;
+
+import org.eclipse.jetty.client.Request;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request listener that measures, per destination, how long requests sat in Jetty's queue before a connection
+ * was available. Registered on the client by {@link HttpClientFactory}.
+ */
+final class ConnectionPoolMonitor implements Request.Listener {
+    private static final String QUEUED_AT = ConnectionPoolMonitor.class.getName() + ".queuedAt";
+
+    private final Map<String, QueueWait> byDestination = new ConcurrentHashMap<>();
+
+    @Override
+    public void onQueued(Request request) {
+        request.attribute(QUEUED_AT, System.nanoTime());
+    }
+
+    @Override
+    public void onBegin(Request request) {
+        if (request.getAttributes().get(QUEUED_AT) instanceof Long queuedAt) {
+            byDestination.computeIfAbsent(destination(request.getScheme(), request.getHost(), request.getPort()),
+                    key -> new QueueWait()).record(System.nanoTime() - queuedAt);
+        }
+    }
+
+    QueueWait waits(String destination) {
+        return byDestination.getOrDefault(destination, new QueueWait());
+    }
+
+    static String destination(String scheme, String host, int port) {
+        return scheme + "://" + host + ":" + port;
+    }
+
+    static final class QueueWait {
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong longestNanos = new AtomicLong();
+
+        void record(long nanos) {
+            samples.increment();
+            totalNanos.add(nanos);
+            longestNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long count() {
+            return samples.sum();
+        }
+
+        long averageNanos() {
+            long n = samples.sum();
+            return n == 0 ? 0 : totalNanos.sum() / n;
+        }
+
+        long maxNanos() {
+            return longestNanos.get();
+        }
+    }
+}
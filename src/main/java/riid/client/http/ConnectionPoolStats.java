@@ -0,0 +1,29 @@
+package riid.client.http;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of one destination's connection pool and of how long requests waited for a connection.
+ *
+ * @param destination       scheme://host:port
+ * @param connections       open connections, active and idle
+ * @param activeConnections connections carrying a request
+ * @param idleConnections   open connections waiting for a request
+ * @param maxConnections    configured per-destination limit
+ * @param queuedRequests    requests currently waiting for a connection
+ * @param dequeuedRequests  requests that have left the queue since the client started
+ * @param averageQueueWait  mean time from queued to sent, over dequeuedRequests
+ * @param maxQueueWait      longest single wait
+ */
+public record ConnectionPoolStats(
+        String destination,
+        int connections,
+        int activeConnections,
+        int idleConnections,
+        int maxConnections,
+        int queuedRequests,
+        long dequeuedRequests,
+        Duration averageQueueWait,
+        Duration maxQueueWait
+) {
+}
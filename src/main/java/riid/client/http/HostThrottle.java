@@ -0,0 +1,113 @@
+package riid.client.http;
+
+import org.eclipse.jetty.http.HttpFields;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send schedule for one registry host, fed by the server's rate-limit headers.
+ * Retry-After (on 429/503) blocks the host until the given time. Docker Hub style
+ * {@code ratelimit-limit: 100;w=21600} / {@code ratelimit-remaining: 7;w=21600} spread the last requests of a
+ * nearly spent quota evenly over the window instead of running into 429s. Times are System.nanoTime().
+ */
+final class HostThrottle {
+    static final String RETRY_AFTER = "Retry-After";
+    static final String RATELIMIT_LIMIT = "ratelimit-limit";
+    static final String RATELIMIT_REMAINING = "ratelimit-remaining";
+    private static final double LOW_REMAINING = 0.1; // start pacing below 10% of the quota
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_UNAVAILABLE = 503;
+
+    private long blockedUntil;
+    private long nextSlot;
+    private long intervalNanos;
+
+    HostThrottle(long now) {
+        this.blockedUntil = now;
+        this.nextSlot = now;
+    }
+
+    /**
+     * Reserve a send slot.
+     *
+     * @return nanos to wait before sending, or -1 if that is longer than maxWaitNanos (nothing is reserved then)
+     */
+    synchronized long reserve(long now, long maxWaitNanos) {
+        long start = Math.max(now, Math.max(blockedUntil, nextSlot));
+        if (start - now > maxWaitNanos) {
+            return -1;
+        }
+        nextSlot = start + intervalNanos;
+        return start - now;
+    }
+
+    /**
+     * Nanos until the host accepts requests again according to the last Retry-After.
+     */
+    synchronized long blockedFor(long now) {
+        return Math.max(0, blockedUntil - now);
+    }
+
+    synchronized void onResponse(int status, HttpFields headers, long now) {
+        if (status == STATUS_TOO_MANY_REQUESTS || status == STATUS_UNAVAILABLE) {
+            retryAfterNanos(headers.get(RETRY_AFTER))
+                    .ifPresent(delay -> blockedUntil = Math.max(blockedUntil, now + delay));
+        }
+        var limit = quota(headers.get(RATELIMIT_LIMIT));
+        var remaining = quota(headers.get(RATELIMIT_REMAINING));
+        if (limit != null && remaining != null && remaining.window() > 0) {
+            intervalNanos = remaining.count() < limit.count() * LOW_REMAINING
+                    ? TimeUnit.SECONDS.toNanos(remaining.window()) / (remaining.count() + 1)
+                    : 0;
+        }
+    }
+
+    /**
+     * Retry-After as delta-seconds or HTTP-date.
+     */
+    static OptionalLong retryAfterNanos(String value) {
+        if (value == null || value.isBlank()) {
+            return OptionalLong.empty();
+        }
+        String trimmed = value.trim();
+        try {
+            return OptionalLong.of(TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(trimmed))));
+        } catch (NumberFormatException e) {
+            try {
+                var at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return OptionalLong.of(Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toNanos()));
+            } catch (DateTimeParseException ignored) {
+                return OptionalLong.empty();
+            }
+        }
+    }
+
+    /**
+     * "count;w=windowSeconds"; null if absent or malformed.
+     */
+    static Quota quota(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String[] parts = value.split(";");
+        try {
+            long window = 0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("w=")) {
+                    window = Long.parseLong(param.substring(2));
+                }
+            }
+            return new Quota(Long.parseLong(parts[0].trim()), window);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    record Quota(long count, long window) { }
+}
@@ -6,6 +6,10 @@ import java.time.Duration;
 
 /**
  * HTTP client configuration for registry calls.
+ * virtualThreads switches Jetty's executor to a virtual thread per task.
+ * protocol enables HTTP/2, so concurrent manifest, HEAD and token requests share one connection per registry.
+ * pool sets the per-destination connection limits; circuitBreaker when a failing host is skipped;
+ * retryBudget how many retries all requests together may spend.
  */
 public record HttpClientConfig(
         @JsonProperty("connectTimeout") Duration connectTimeout,
@@ -15,7 +19,12 @@ public record HttpClientConfig(
         @JsonProperty("maxBackoff") Duration maxBackoff,
         @JsonProperty("retryIdempotentOnly") boolean retryIdempotentOnly,
         @JsonProperty("userAgent") String userAgent,
-        @JsonProperty("followRedirects") boolean followRedirects
+        @JsonProperty("followRedirects") boolean followRedirects,
+        @JsonProperty("virtualThreads") boolean virtualThreads,
+        @JsonProperty("protocol") HttpProtocol protocol,
+        @JsonProperty("pool") ConnectionPoolConfig pool,
+        @JsonProperty("circuitBreaker") CircuitBreakerConfig circuitBreaker,
+        @JsonProperty("retryBudget") RetryBudgetConfig retryBudget
 ) {
     private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
     private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
@@ -25,11 +34,13 @@ public record HttpClientConfig(
     private static final boolean DEFAULT_RETRY_IDEMPOTENT_ONLY = true;
     private static final String DEFAULT_USER_AGENT = "riid-registry-client";
     private static final boolean DEFAULT_FOLLOW_REDIRECTS = true;
+    private static final HttpProtocol DEFAULT_PROTOCOL = HttpProtocol.HTTP_1_1;
 
     public HttpClientConfig() {
         this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, DEFAULT_MAX_RETRIES,
                 DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_RETRY_IDEMPOTENT_ONLY, DEFAULT_USER_AGENT,
-                DEFAULT_FOLLOW_REDIRECTS);
+                DEFAULT_FOLLOW_REDIRECTS, false, DEFAULT_PROTOCOL, new ConnectionPoolConfig(),
+                new CircuitBreakerConfig(), new RetryBudgetConfig());
     }
 
     public HttpClientConfig(Duration connectTimeout,
@@ -40,6 +51,24 @@ public record HttpClientConfig(
                             boolean retryIdempotentOnly,
                             String userAgent,
                             boolean followRedirects) {
+        this(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff, retryIdempotentOnly,
+                userAgent, followRedirects, false, DEFAULT_PROTOCOL, new ConnectionPoolConfig(),
+                new CircuitBreakerConfig(), new RetryBudgetConfig());
+    }
+
+    public HttpClientConfig(Duration connectTimeout,
+                            Duration requestTimeout,
+                            int maxRetries,
+                            Duration initialBackoff,
+                            Duration maxBackoff,
+                            boolean retryIdempotentOnly,
+                            String userAgent,
+                            boolean followRedirects,
+                            boolean virtualThreads,
+                            HttpProtocol protocol,
+                            ConnectionPoolConfig pool,
+                            CircuitBreakerConfig circuitBreaker,
+                            RetryBudgetConfig retryBudget) {
         this.connectTimeout = connectTimeout != null ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
         this.requestTimeout = requestTimeout != null ? requestTimeout : DEFAULT_REQUEST_TIMEOUT;
         this.maxRetries = maxRetries >= 0 ? maxRetries : DEFAULT_MAX_RETRIES;
@@ -48,9 +77,59 @@ public record HttpClientConfig(
         this.retryIdempotentOnly = retryIdempotentOnly;
         this.userAgent = userAgent != null ? userAgent : DEFAULT_USER_AGENT;
         this.followRedirects = followRedirects;
+        this.virtualThreads = virtualThreads;
+        this.protocol = protocol != null ? protocol : DEFAULT_PROTOCOL;
+        this.pool = pool != null ? pool : new ConnectionPoolConfig();
+        this.circuitBreaker = circuitBreaker != null ? circuitBreaker : new CircuitBreakerConfig();
+        this.retryBudget = retryBudget != null ? retryBudget : new RetryBudgetConfig();
         validate();
     }
 
+    /**
+     * Same settings with Jetty's executor on virtual threads (or back on platform threads).
+     */
+    public HttpClientConfig withVirtualThreads(boolean enabled) {
+        return new HttpClientConfig(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff,
+                retryIdempotentOnly, userAgent, followRedirects, enabled, protocol, pool, circuitBreaker,
+                retryBudget);
+    }
+
+    /**
+     * Same settings with another HTTP protocol.
+     */
+    public HttpClientConfig withProtocol(HttpProtocol otherProtocol) {
+        return new HttpClientConfig(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff,
+                retryIdempotentOnly, userAgent, followRedirects, virtualThreads, otherProtocol, pool, circuitBreaker,
+                retryBudget);
+    }
+
+    /**
+     * Same settings with another connection pool, e.g. for a client dedicated to CDN downloads.
+     */
+    public HttpClientConfig withPool(ConnectionPoolConfig otherPool) {
+        return new HttpClientConfig(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff,
+                retryIdempotentOnly, userAgent, followRedirects, virtualThreads, protocol, otherPool, circuitBreaker,
+                retryBudget);
+    }
+
+    /**
+     * Same settings with another circuit breaker.
+     */
+    public HttpClientConfig withCircuitBreaker(CircuitBreakerConfig otherBreaker) {
+        return new HttpClientConfig(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff,
+                retryIdempotentOnly, userAgent, followRedirects, virtualThreads, protocol, pool, otherBreaker,
+                retryBudget);
+    }
+
+    /**
+     * Same settings with another retry budget.
+     */
+    public HttpClientConfig withRetryBudget(RetryBudgetConfig otherBudget) {
+        return new HttpClientConfig(connectTimeout, requestTimeout, maxRetries, initialBackoff, maxBackoff,
+                retryIdempotentOnly, userAgent, followRedirects, virtualThreads, protocol, pool, circuitBreaker,
+                otherBudget);
+    }
+
     private void validate() {
         if (connectTimeout.isNegative()) {
             throw new IllegalArgumentException("connectTimeout must be non-negative");
@@ -1,6 +1,13 @@
 package riid.client.http;
 
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.transport.HttpClientConnectionFactory;
+import org.eclipse.jetty.client.transport.HttpClientTransportDynamic;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.transport.ClientConnectionFactoryOverHTTP2;
+import org.eclipse.jetty.io.ClientConnectionFactory;
+import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.util.thread.VirtualThreadPool;
 
 /**
  * Factory for configured Jetty HttpClient.
@@ -11,14 +18,39 @@ public final class HttpClientFactory {
 
     public static HttpClient create(HttpClientConfig config) {
         try {
-            HttpClient client = new HttpClient();
+            HttpClient client = config.protocol() == HttpProtocol.HTTP_1_1
+                    ? new HttpClient()
+                    : new HttpClient(http2Transport(config.protocol()));
+            if (config.virtualThreads()) {
+                VirtualThreadPool executor = new VirtualThreadPool();
+                executor.setName("riid-http");
+                client.setExecutor(executor);
+            }
             client.setConnectTimeout(config.connectTimeout().toMillis());
             client.setFollowRedirects(config.followRedirects());
+            client.setMaxConnectionsPerDestination(config.pool().maxConnections());
+            client.setMaxRequestsQueuedPerDestination(config.pool().maxQueuedRequests());
+            client.setIdleTimeout(config.pool().idleTimeout().toMillis());
+            ConnectionPoolMonitor monitor = new ConnectionPoolMonitor();
+            client.getRequestListeners().addListener(monitor);
+            client.addBean(monitor, false);
             client.start();
             return client;
         } catch (Exception e) {
             throw new IllegalStateException("Failed to start Jetty HttpClient", e);
         }
     }
+
+    /**
+     * TLS negotiates among both protocols via ALPN; cleartext connections use the first one listed.
+     */
+    private static HttpClientTransportDynamic http2Transport(HttpProtocol protocol) {
+        ClientConnector connector = new ClientConnector();
+        ClientConnectionFactory.Info h2 = new ClientConnectionFactoryOverHTTP2.HTTP2(new HTTP2Client(connector));
+        ClientConnectionFactory.Info http11 = HttpClientConnectionFactory.HTTP11;
+        return protocol == HttpProtocol.HTTP_2_CLEARTEXT
+                ? new HttpClientTransportDynamic(connector, h2, http11)
+                : new HttpClientTransportDynamic(connector, http11, h2);
+    }
 }
 
@@ -1,118 +1,371 @@
 package riid.client.http;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.eclipse.jetty.client.ContentResponse;
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.CompletableResponseListener;
+import org.eclipse.jetty.client.Destination;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.InputStreamResponseListener;
+import org.eclipse.jetty.client.Origin;
 import org.eclipse.jetty.client.Request;
+import org.eclipse.jetty.client.Response;
+import org.eclipse.jetty.client.Result;
+import org.eclipse.jetty.client.transport.HttpDestination;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import riid.client.core.error.ClientError;
+import riid.client.core.error.ClientException;
+import riid.concurrent.Futures;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutionException;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Thin wrapper over Jetty HttpClient with retries for idempotent GET/HEAD.
+ * Requests to a host honour its Retry-After and rate-limit headers ({@link HostThrottle}): they are delayed
+ * instead of sent into a guaranteed 429, and fail fast when the wait would exceed the request timeout.
+ * A per-host {@link CircuitBreaker} fails requests fast while a host keeps failing, so callers can fail over
+ * instead of spending every retry on a full request timeout. Retries draw on a {@link RetryBudget} per host and
+ * one for the whole client, which keeps an outage from multiplying the load on a registry.
+ * Every call runs on Jetty's non-blocking API and retries are scheduled on the client's timer, so no thread
+ * sleeps in backoff; the blocking methods just join the *Async ones. Cancelling a returned future aborts
+ * the exchange and any pending retry.
  */
 public final class HttpExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpExecutor.class);
+    private static final String METHOD_GET = HttpMethod.GET.asString();
     private static final String METHOD_HEAD = HttpMethod.HEAD.asString();
     private static final List<Integer> RETRY_STATUSES = List.of(429, 502, 503, 504);
+    private static final int MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final String RATE_LIMITED = "Registry rate limit";
+    private static final String CIRCUIT_OPEN = "Registry host unavailable";
+    private static final String RETRY_BUDGET_SPENT = "Retry budget exhausted";
 
     private final HttpClient client;
     private final HttpClientConfig config;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final RetryBudget retryBudget;
 
     @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "Jetty client lifecycle managed by caller")
     @SuppressWarnings("PMD.EI_EXPOSE_REP2")
     public HttpExecutor(HttpClient client, HttpClientConfig config) {
         this.client = Objects.requireNonNull(client);
         this.config = Objects.requireNonNull(config);
+        this.retryBudget = new RetryBudget(config.retryBudget());
     }
 
     public HttpResult<InputStream> get(URI uri, Map<String, String> headers) {
-        return sendWithRetry("GET", uri, headers, true);
+        return Futures.join(getAsync(uri, headers));
     }
 
     public HttpResult<Void> head(URI uri, Map<String, String> headers) {
-        HttpResult<InputStream> resp = sendWithRetry("HEAD", uri, headers, true);
-        return new HttpResult<>(resp.statusCode(), resp.headers(), null, resp.uri());
+        return Futures.join(headAsync(uri, headers));
     }
 
-    private HttpResult<InputStream> sendWithRetry(String method,
-                                                  URI uri,
-                                                  Map<String, String> headers,
-                                                  boolean idempotent) {
-        int attempts = 0;
-        while (true) {
-            attempts++;
+    /**
+     * Non-blocking GET that completes as soon as the response headers arrived; the body is read from the
+     * returned stream (reads block until content arrives) and the caller must close it.
+     */
+    public CompletableFuture<HttpResult<InputStream>> getAsync(URI uri, Map<String, String> headers) {
+        return withRetry(uri, () -> sendForStream(uri, headers), true);
+    }
+
+    /**
+     * Non-blocking GET with the whole body buffered in memory (manifests, tokens, tag lists).
+     */
+    public CompletableFuture<HttpResult<byte[]>> getBytesAsync(URI uri, Map<String, String> headers) {
+        return withRetry(uri, () -> sendBuffered(METHOD_GET, uri, headers), true);
+    }
+
+    public CompletableFuture<HttpResult<Void>> headAsync(URI uri, Map<String, String> headers) {
+        return Futures.map(withRetry(uri, () -> sendBuffered(METHOD_HEAD, uri, headers), true),
+                resp -> new HttpResult<>(resp.statusCode(), resp.headers(), null, resp.uri()));
+    }
+
+    /**
+     * Non-blocking GET that streams a 2xx body into a consumer created from the response headers.
+     * Non-2xx bodies are discarded and the result carries a null body. Retries follow the same policy
+     * as {@link #get}, but only until the first body chunk reached the consumer.
+     */
+    public <T> CompletableFuture<HttpResult<T>> streamAsync(URI uri,
+                                                            Map<String, String> headers,
+                                                            Function<HttpResult<Void>, BodyConsumer<T>> consumers) {
+        return streamAsync(uri, headers, consumers, config.followRedirects());
+    }
+
+    /**
+     * Same as {@link #streamAsync(URI, Map, Function)}; with followRedirects false a 3xx is returned like any
+     * other non-2xx response (null body, Location in the headers), so the caller can handle the redirect itself.
+     */
+    public <T> CompletableFuture<HttpResult<T>> streamAsync(URI uri,
+                                                            Map<String, String> headers,
+                                                            Function<HttpResult<Void>, BodyConsumer<T>> consumers,
+                                                            boolean followRedirects) {
+        Objects.requireNonNull(consumers, "consumers");
+        return withRetry(uri, () -> sendStreaming(uri, headers, consumers, followRedirects), true);
+    }
+
+    private <T> CompletableFuture<HttpResult<T>> withRetry(URI uri,
+                                                           Supplier<CompletableFuture<HttpResult<T>>> exchange,
+                                                           boolean idempotent) {
+        CompletableFuture<HttpResult<T>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResult<T>>> current = new AtomicReference<>();
+        result.whenComplete((resp, failure) -> {
+            CompletableFuture<HttpResult<T>> running = current.get();
+            if (failure instanceof CancellationException && running != null) {
+                running.cancel(true);
+            }
+        });
+        new Attempts<>(host(uri), exchange, idempotent, result, current).next(1);
+        return result;
+    }
+
+    /**
+     * The attempts of one call; each waits for its host's throttle and needs the host's circuit breaker to
+     * let it through before it is sent.
+     */
+    private final class Attempts<T> {
+        private final HostThrottle throttle;
+        private final CircuitBreaker breaker;
+        private final RetryBudget hostBudget;
+        private final Supplier<CompletableFuture<HttpResult<T>>> exchange;
+        private final boolean idempotent;
+        private final CompletableFuture<HttpResult<T>> result;
+        private final AtomicReference<CompletableFuture<HttpResult<T>>> current;
+
+        Attempts(Host host,
+                 Supplier<CompletableFuture<HttpResult<T>>> exchange,
+                 boolean idempotent,
+                 CompletableFuture<HttpResult<T>> result,
+                 AtomicReference<CompletableFuture<HttpResult<T>>> current) {
+            this.throttle = host.throttle();
+            this.breaker = host.breaker();
+            this.hostBudget = host.retryBudget();
+            this.exchange = exchange;
+            this.idempotent = idempotent;
+            this.result = result;
+            this.current = current;
+        }
+
+        void next(int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            long wait = throttle.reserve(System.nanoTime(), maxThrottleWaitNanos());
+            if (wait < 0) {
+                result.completeExceptionally(new ClientException(
+                        new ClientError.Http(ClientError.HttpKind.RATE_LIMITED, STATUS_TOO_MANY_REQUESTS,
+                                RATE_LIMITED),
+                        RATE_LIMITED + " longer than the request timeout"));
+            } else if (wait > 0) {
+                schedule(wait, result, () -> send(attempt));
+            } else {
+                send(attempt);
+            }
+        }
+
+        private void send(int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            Optional<CircuitBreaker.Permit> acquired = breaker.tryAcquire(System.nanoTime());
+            if (acquired.isEmpty()) {
+                result.completeExceptionally(new ClientException(
+                        new ClientError.Http(ClientError.HttpKind.CIRCUIT_OPEN, null, CIRCUIT_OPEN),
+                        CIRCUIT_OPEN + " after repeated failures"));
+                return;
+            }
+            CircuitBreaker.Permit permit = acquired.get();
+            CompletableFuture<HttpResult<T>> running;
             try {
-                HttpResult<InputStream> resp = execute(method, uri, headers);
-                if (shouldRetry(resp.statusCode(), attempts, idempotent)) {
-                    backoff(attempts);
-                    continue;
+                running = exchange.get();
+            } catch (RuntimeException e) {
+                breaker.onIgnored(permit);
+                result.completeExceptionally(e);
+                return;
+            }
+            current.set(running);
+            if (result.isDone()) {
+                breaker.onIgnored(permit);
+                running.cancel(true);
+                return;
+            }
+            running.whenComplete((resp, failure) -> {
+                if (failure == null) {
+                    if (resp.statusCode() >= HttpStatus.INTERNAL_SERVER_ERROR_500) {
+                        breaker.onFailure(permit, System.nanoTime());
+                    } else {
+                        breaker.onSuccess(permit);
+                    }
+                    onResponse(attempt, resp);
+                    return;
                 }
-                return resp;
-            } catch (IOException e) {
-                if (shouldRetryIOException(attempts, idempotent)) {
-                    backoff(attempts);
-                    continue;
+                Throwable cause = Futures.unwrap(failure);
+                if (cause instanceof IOException) {
+                    breaker.onFailure(permit, System.nanoTime());
+                } else {
+                    breaker.onIgnored(permit); // cancelled, or rejected by our own consumer
                 }
-                throw new UncheckedIOException(e);
+                if (!(cause instanceof IOException)
+                        || cause instanceof PartialBodyException
+                        || !shouldRetryIOException(attempt, idempotent)) {
+                    result.completeExceptionally(cause);
+                } else if (!RetryBudget.tryWithdraw(hostBudget, retryBudget)) {
+                    result.completeExceptionally(retryExhausted(null, cause));
+                } else {
+                    schedule(TimeUnit.MILLISECONDS.toNanos(backoffMillis(attempt)), result, () -> next(attempt + 1));
+                }
+            });
+        }
+
+        private void onResponse(int attempt, HttpResult<T> resp) {
+            long now = System.nanoTime();
+            int status = resp.statusCode();
+            throttle.onResponse(status, resp.headers(), now);
+            if (status < HttpStatus.INTERNAL_SERVER_ERROR_500 && !RETRY_STATUSES.contains(status)) {
+                hostBudget.onSuccess();
+                retryBudget.onSuccess();
             }
+            long blocked = throttle.blockedFor(now);
+            // a retry before Retry-After is guaranteed to fail; one after the request timeout is not worth waiting
+            if (!shouldRetry(status, attempt, idempotent) || blocked > maxThrottleWaitNanos()) {
+                result.complete(resp);
+                return;
+            }
+            discard(resp);
+            if (!RetryBudget.tryWithdraw(hostBudget, retryBudget)) {
+                result.completeExceptionally(retryExhausted(status, null));
+                return;
+            }
+            long backoff = blocked > 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(backoffMillis(attempt));
+            schedule(backoff, result, () -> next(attempt + 1)); // next() waits for the throttle
         }
     }
 
-    private HttpResult<InputStream> execute(String method,
-                                            URI uri,
-                                            Map<String, String> headers) throws IOException {
-        if (METHOD_HEAD.equalsIgnoreCase(method)) {
+    /**
+     * Run next on the Jetty client timer; no thread waits meanwhile. Cancelled when result completes first.
+     */
+    private void schedule(long delayNanos, CompletableFuture<?> result, Runnable next) {
+        Scheduler.Task task = client.getScheduler().schedule(next, delayNanos, TimeUnit.NANOSECONDS);
+        result.whenComplete((resp, failure) -> task.cancel());
+    }
+
+    private Host host(URI uri) {
+        return hosts.computeIfAbsent(uri.getHost() + ":" + uri.getPort(),
+                key -> new Host(new HostThrottle(System.nanoTime()), new CircuitBreaker(config.circuitBreaker()),
+                        new RetryBudget(config.retryBudget())));
+    }
+
+    private static ClientException retryExhausted(Integer status, Throwable cause) {
+        return new ClientException(
+                new ClientError.Http(ClientError.HttpKind.RETRY_EXHAUSTED, status, RETRY_BUDGET_SPENT),
+                RETRY_BUDGET_SPENT + (status != null ? ", last status " + status : ""),
+                cause);
+    }
+
+    /**
+     * Longest a request waits for a rate-limited host before it fails instead.
+     */
+    private long maxThrottleWaitNanos() {
+        return config.requestTimeout().toNanos();
+    }
+
+    @SuppressWarnings("PMD.CloseResource") // closed right here
+    private static void discard(HttpResult<?> resp) {
+        if (resp.body() instanceof InputStream body) {
             try {
-                Request req = client.newRequest(uri)
-                        .method(METHOD_HEAD)
-                        .timeout(config.requestTimeout().toMillis(), TimeUnit.MILLISECONDS)
-                        .headers(h -> {
-                            headers.forEach(h::add);
-                            applyUserAgent(h, headers);
-                        });
-                ContentResponse response = req.send();
-                HttpFields httpHeaders = response.getHeaders();
-                return new HttpResult<>(response.getStatus(), httpHeaders, null, uri);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                throw new IOException("Jetty HEAD interrupted", ie);
-            } catch (ExecutionException | TimeoutException e) {
-                throw new IOException("Jetty HEAD failed", e);
-            }
-        }
-
-        @SuppressWarnings("PMD.CloseResource")
-        InputStreamResponseListener listener = new InputStreamResponseListener();
-        Request request = client.newRequest(uri)
+                body.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to discard body of retried response {}: {}", resp.uri(), e.getMessage());
+            }
+        }
+    }
+
+    private CompletableFuture<HttpResult<byte[]>> sendBuffered(String method, URI uri, Map<String, String> headers) {
+        Request request = newRequest(method, uri, headers);
+        CompletableFuture<HttpResult<byte[]>> result = new CompletableFuture<>();
+        new CompletableResponseListener(request, MAX_BUFFERED_BYTES).send().whenComplete((response, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(exchangeFailure(Futures.unwrap(failure), false));
+            } else {
+                result.complete(new HttpResult<>(
+                        response.getStatus(), response.getHeaders(), response.getContent(), uri));
+            }
+        });
+        result.whenComplete((response, failure) -> {
+            if (failure != null) {
+                request.abort(failure);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<HttpResult<InputStream>> sendForStream(URI uri, Map<String, String> headers) {
+        Request request = newRequest(METHOD_GET, uri, headers);
+        StreamListener listener = new StreamListener(uri);
+        request.send(listener);
+        listener.headers.whenComplete((response, failure) -> {
+            if (failure != null) {
+                request.abort(failure);
+            }
+        });
+        return listener.headers;
+    }
+
+    private <T> CompletableFuture<HttpResult<T>> sendStreaming(URI uri,
+                                                             Map<String, String> headers,
+                                                             Function<HttpResult<Void>, BodyConsumer<T>> consumers,
+                                                             boolean followRedirects) {
+        Request request = newRequest(METHOD_GET, uri, headers).followRedirects(followRedirects);
+        CompletableFuture<HttpResult<T>> result = new CompletableFuture<>();
+        request.send(new StreamingListener<>(uri, consumers, result));
+        result.whenComplete((response, failure) -> {
+            if (failure != null) {
+                request.abort(failure);
+            }
+        });
+        return result;
+    }
+
+    private Request newRequest(String method, URI uri, Map<String, String> headers) {
+        return client.newRequest(uri)
                 .method(method)
                 .timeout(config.requestTimeout().toMillis(), TimeUnit.MILLISECONDS)
                 .headers(h -> {
                     headers.forEach(h::add);
                     applyUserAgent(h, headers);
                 });
-        request.send(listener);
-        try {
-            var response = listener.get(config.requestTimeout().toMillis(), TimeUnit.MILLISECONDS);
-            HttpFields httpHeaders = response.getHeaders();
-            return new HttpResult<>(response.getStatus(), httpHeaders, listener.getInputStream(), uri);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Jetty request interrupted", ie);
-        } catch (ExecutionException | TimeoutException e) {
-            throw new IOException("Jetty request failed", e);
+    }
+
+    private static Throwable exchangeFailure(Throwable failure, boolean bodyStarted) {
+        if (failure instanceof RuntimeException || failure instanceof Error) {
+            return failure; // raised by our own consumer or by cancellation
         }
+        return bodyStarted
+                ? new PartialBodyException(failure)
+                : new IOException("Jetty request failed", failure);
     }
 
     private void applyUserAgent(HttpFields.Mutable fields, Map<String, String> headers) {
@@ -141,18 +394,54 @@ public final class HttpExecutor {
         return true;
     }
 
-    private void backoff(int attempts) {
+    private long backoffMillis(int attempts) {
         long base = config.initialBackoff().toMillis();
         long max = config.maxBackoff().toMillis();
         long expo = base * (1L << Math.max(0, attempts - 1));
-        long jitter = ThreadLocalRandom.current().nextLong(base);
-        long sleep = Math.min(max, expo + jitter);
-        try {
-            Thread.sleep(sleep);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
+        long jitter = base > 0 ? ThreadLocalRandom.current().nextLong(base) : 0;
+        return Math.min(max, expo + jitter);
+    }
+
+    /**
+     * Jetty's executor, for follow-up work that must not run on (or block) a network callback.
+     */
+    public Executor executor() {
+        return client.getExecutor();
+    }
+
+    /**
+     * Open up to the configured number of prewarm connections to the destination of uri, so the first requests
+     * skip the TCP and TLS handshakes. Completes when the connections are established.
+     */
+    public CompletableFuture<Void> preconnect(URI uri) {
+        int connections = config.pool().prewarmConnections();
+        if (connections == 0) {
+            return CompletableFuture.completedFuture(null);
         }
+        Destination destination = client.resolveDestination(client.newRequest(uri));
+        return destination.getConnectionPool().preCreateConnections(connections);
+    }
+
+    /**
+     * Pool occupancy and queue-wait time of every destination this client has talked to.
+     * Queue waits are only known for clients built by {@link HttpClientFactory}.
+     */
+    public List<ConnectionPoolStats> poolStats() {
+        ConnectionPoolMonitor monitor = client.getBean(ConnectionPoolMonitor.class);
+        List<ConnectionPoolStats> stats = new ArrayList<>();
+        for (Destination destination : client.getDestinations()) {
+            Origin.Address address = destination.getOrigin().getAddress();
+            String key = ConnectionPoolMonitor.destination(
+                    destination.getOrigin().getScheme(), address.getHost(), address.getPort());
+            var waits = monitor != null ? monitor.waits(key) : new ConnectionPoolMonitor.QueueWait();
+            int queued = destination instanceof HttpDestination http ? http.getQueuedRequestCount() : 0;
+            if (destination.getConnectionPool() instanceof AbstractConnectionPool pool) {
+                stats.add(new ConnectionPoolStats(key, pool.getConnectionCount(), pool.getActiveConnectionCount(),
+                        pool.getIdleConnectionCount(), pool.getMaxConnectionCount(), queued, waits.count(),
+                        Duration.ofNanos(waits.averageNanos()), Duration.ofNanos(waits.maxNanos())));
+            }
+        }
+        return stats;
     }
 
     public static String rangeHeader(long startInclusive, Long endInclusive) {
@@ -167,5 +456,103 @@ public final class HttpExecutor {
                 : "bytes=%d-%d".formatted(startInclusive, endInclusive);
     }
 
-}
+    /**
+     * Send state shared by all requests to one host:port.
+     */
+    private record Host(HostThrottle throttle, CircuitBreaker breaker, RetryBudget retryBudget) { }
+
+    /**
+     * Failure after part of the body was already handed to the consumer; not retried from scratch.
+     */
+    private static final class PartialBodyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PartialBodyException(Throwable cause) {
+            super("Response body interrupted", cause);
+        }
+    }
+
+    /**
+     * InputStreamResponseListener that exposes the headers as a future instead of a blocking get().
+     */
+    private static final class StreamListener extends InputStreamResponseListener {
+        private final URI uri;
+        private final CompletableFuture<HttpResult<InputStream>> headers = new CompletableFuture<>();
+
+        StreamListener(URI uri) {
+            this.uri = uri;
+        }
 
+        @Override
+        public void onHeaders(Response response) {
+            super.onHeaders(response);
+            headers.complete(new HttpResult<>(response.getStatus(), response.getHeaders(), getInputStream(), uri));
+        }
+
+        @Override
+        public void onComplete(Result result) {
+            super.onComplete(result);
+            if (result.isFailed()) {
+                headers.completeExceptionally(exchangeFailure(result.getFailure(), false));
+            }
+        }
+    }
+
+    private static final class StreamingListener<T> implements Response.Listener {
+        private final URI uri;
+        private final Function<HttpResult<Void>, BodyConsumer<T>> consumers;
+        private final CompletableFuture<HttpResult<T>> result;
+        private volatile BodyConsumer<T> consumer;
+        private volatile boolean bodyStarted;
+
+        StreamingListener(URI uri,
+                          Function<HttpResult<Void>, BodyConsumer<T>> consumers,
+                          CompletableFuture<HttpResult<T>> result) {
+            this.uri = uri;
+            this.consumers = consumers;
+            this.result = result;
+        }
+
+        @Override
+        public void onHeaders(Response response) {
+            if (!HttpStatus.isSuccess(response.getStatus())) {
+                return; // error bodies are discarded, the caller only sees the status
+            }
+            try {
+                consumer = consumers.apply(new HttpResult<>(response.getStatus(), response.getHeaders(), null, uri));
+            } catch (RuntimeException e) {
+                response.abort(e);
+            }
+        }
+
+        @Override
+        public void onContent(Response response, Content.Chunk chunk, Runnable demander) throws Exception {
+            BodyConsumer<T> target = consumer;
+            if (target != null && chunk.hasRemaining()) {
+                bodyStarted = true;
+                target.onContent(chunk.getByteBuffer()); // a throw here aborts the response
+            }
+            demander.run();
+        }
+
+        @Override
+        public void onComplete(Result exchange) {
+            BodyConsumer<T> target = consumer;
+            if (exchange.isFailed()) {
+                if (target != null) {
+                    target.abort(exchange.getFailure());
+                }
+                result.completeExceptionally(exchangeFailure(exchange.getFailure(), bodyStarted));
+                return;
+            }
+            Response response = exchange.getResponse();
+            try {
+                T body = target != null ? target.complete() : null;
+                result.complete(new HttpResult<>(response.getStatus(), response.getHeaders(), body, uri));
+            } catch (IOException | RuntimeException e) {
+                target.abort(e);
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package riid.client.http;
+
+/**
+ * HTTP versions the registry client may speak.
+ */
+public enum HttpProtocol {
+    /** HTTP/1.1 only: one request per connection at a time. */
+    HTTP_1_1,
+    /** h2 negotiated via ALPN on TLS, falling back to HTTP/1.1; cleartext stays HTTP/1.1. */
+    HTTP_2,
+    /** As HTTP_2, plus h2c (prior knowledge) for cleartext endpoints such as local mirrors. */
+    HTTP_2_CLEARTEXT
+}
@@ -0,0 +1,48 @@
+package riid.client.http;
+
+/**
+ * Token bucket of retries refilled by successful requests; see {@link RetryBudgetConfig}.
+ */
+final class RetryBudget {
+    private static final double RETRY_COST = 1.0;
+
+    private final double ratio;
+    private final double capacity;
+    private double balance;
+
+    RetryBudget(RetryBudgetConfig config) {
+        this.ratio = config.ratio();
+        this.capacity = config.reserve();
+        this.balance = capacity;
+    }
+
+    synchronized void onSuccess() {
+        balance = Math.min(capacity, balance + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (balance < RETRY_COST) {
+            return false;
+        }
+        balance -= RETRY_COST;
+        return true;
+    }
+
+    synchronized void refund() {
+        balance = Math.min(capacity, balance + RETRY_COST);
+    }
+
+    /**
+     * Spend one retry from every budget, or from none if any of them is empty.
+     */
+    static boolean tryWithdraw(RetryBudget first, RetryBudget second) {
+        if (!first.tryWithdraw()) {
+            return false;
+        }
+        if (!second.tryWithdraw()) {
+            first.refund();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,29 @@
+package riid.client.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Shared retry budget: every successful request earns ratio retries, every retry spends one, and at most
+ * reserve retries can be saved up (which is also the allowance of a fresh client). Applied per host and across
+ * all hosts of one client, so under an outage retries add at most ratio to the load instead of maxRetries times.
+ */
+public record RetryBudgetConfig(
+        @JsonProperty("ratio") double ratio,
+        @JsonProperty("reserve") int reserve
+) {
+    private static final double DEFAULT_RATIO = 0.2;
+    private static final int DEFAULT_RESERVE = 10;
+    private static final double MAX_RATIO = 1.0;
+
+    public RetryBudgetConfig {
+        ratio = ratio > 0 ? ratio : DEFAULT_RATIO;
+        reserve = reserve > 0 ? reserve : DEFAULT_RESERVE;
+        if (ratio > MAX_RATIO) {
+            throw new IllegalArgumentException("ratio must be in (0, 1]");
+        }
+    }
+
+    public RetryBudgetConfig() {
+        this(DEFAULT_RATIO, DEFAULT_RESERVE);
+    }
+}
@@ -18,25 +18,35 @@ import riid.client.core.model.manifest.RegistryApi;
 import riid.client.http.HttpExecutor;
 import riid.client.http.HttpRequestBuilder;
 import riid.client.http.HttpResult;
+import riid.concurrent.Futures;
+import riid.concurrent.SingleFlight;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handles ping + Bearer token fetching with caching.
  */
 public final class AuthService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthService.class);
+    private static final String TOKEN_IO_ERROR = "Token endpoint IO error";
+    private static final String BEARER = "Bearer ";
 
     private final HttpExecutor http;
     private final ObjectMapper mapper;
     private final TokenCache cache;
+    private final Map<URI, Ping> challenges = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Optional<String>> tokenFlights = new SingleFlight<>();
 
     private final long defaultTokenTtlSeconds;
 
@@ -56,49 +66,158 @@ public final class AuthService {
      * Return Authorization header value ("Bearer ...") or empty if no auth needed.
      */
     public Optional<String> getAuthHeader(RegistryEndpoint endpoint, String repository, String scope) {
-        String cacheKey = cacheKey(endpoint, scope);
+        return Futures.join(getAuthHeaderAsync(endpoint, repository, scope));
+    }
+
+    /**
+     * Non-blocking variant of {@link #getAuthHeader}; a cached token completes immediately.
+     */
+    public CompletableFuture<Optional<String>> getAuthHeaderAsync(RegistryEndpoint endpoint,
+                                                                  String repository,
+                                                                  String scope) {
+        String cacheKey = tokenKey(endpoint, scope);
         Optional<String> cached = cache.get(cacheKey);
         if (cached.isPresent()) {
-            return cached.map(t -> "Bearer " + t);
+            if (cache.tryStartRefresh(cacheKey)) {
+                refreshAhead(endpoint, scope, cacheKey);
+            }
+            return CompletableFuture.completedFuture(cached.map(t -> BEARER + t));
         }
+        // concurrent misses for one key (a burst of layer downloads) share one ping and token fetch
+        return tokenFlights.executeAsync(cacheKey, () -> fetchAuthHeader(endpoint, scope, cacheKey, false));
+    }
 
-        // Ping to get challenge
-        URI pingUri = HttpRequestBuilder.buildUri(
-                endpoint.scheme(),
-                endpoint.host(),
-                endpoint.port(),
-                RegistryApi.V2_PING);
-        HttpResult<Void> pingResp = http.head(pingUri, Map.of());
-        if (pingResp.statusCode() == HttpStatus.OK_200) {
-            return Optional.empty(); // no auth needed
+    /**
+     * Renews a token that is close to expiry in the background; callers keep using the cached one meanwhile.
+     */
+    private void refreshAhead(RegistryEndpoint endpoint, String scope, String cacheKey) {
+        tokenFlights.executeAsync(cacheKey, () -> fetchAuthHeader(endpoint, scope, cacheKey, true))
+                .whenComplete((header, failure) -> {
+                    if (failure != null) {
+                        LOGGER.warn("Token refresh-ahead for {} failed: {}", scope,
+                                Futures.unwrap(failure).getMessage());
+                    }
+                });
+    }
+
+    private CompletableFuture<Optional<String>> fetchAuthHeader(RegistryEndpoint endpoint,
+                                                                String scope,
+                                                                String cacheKey,
+                                                                boolean refresh) {
+        Optional<String> cached = refresh ? Optional.empty() : cache.get(cacheKey);
+        if (cached.isPresent()) { // a flight may have just finished between miss and join
+            return CompletableFuture.completedFuture(cached.map(t -> BEARER + t));
         }
-        if (pingResp.statusCode() != HttpStatus.UNAUTHORIZED_401) {
-            throw new ClientException(
-                    new ClientError.Auth(
-                            ClientError.AuthKind.UNEXPECTED_PING_STATUS,
-                            pingResp.statusCode(),
-                            "Unexpected ping status"),
-                    "Unexpected ping status: " + pingResp.statusCode()
-            );
+        return Futures.compose(challenge(endpoint), ping -> {
+            if (ping.challenge() == null) {
+                return CompletableFuture.completedFuture(Optional.empty()); // no auth needed
+            }
+            return Futures.map(fetchToken(ping.challenge(), endpoint.credentialsOpt().orElse(null), scope), token -> {
+                Long announced = token.expiresIn() != null ? token.expiresIn() : ping.tokenTtl();
+                if (announced == null) {
+                    LOGGER.warn("No token TTL in response or headers; using default {}s", defaultTokenTtlSeconds);
+                }
+                cache.put(cacheKey, token.value(), announced != null ? announced : defaultTokenTtlSeconds);
+                return Optional.of(BEARER + token.value());
+            });
+        });
+    }
+
+    /**
+     * A registry request got 401. If its challenge names another realm or service than the cached one (or none),
+     * the cached ping is dropped so the next token fetch pings /v2/ again.
+     */
+    public void onUnauthorized(RegistryEndpoint endpoint, HttpFields headers) {
+        Optional<AuthChallenge> fresh = extractChallenge(headers);
+        challenges.computeIfPresent(pingUri(endpoint), (uri, known) ->
+                fresh.isPresent() && known.challenge() != null && sameIssuer(known.challenge(), fresh.get())
+                        ? known
+                        : null);
+    }
+
+    /**
+     * Re-authentication after a registry request made with {@code rejected} (null if none was sent) got 401: the
+     * token is dropped, the 401's challenge replaces the cached one and a fresh token is fetched for the scope
+     * plus any extra scope the challenge asks for. If another caller already replaced the rejected token, that
+     * one is returned.
+     */
+    public CompletableFuture<Optional<String>> reauthenticate(RegistryEndpoint endpoint,
+                                                              String scope,
+                                                              String rejected,
+                                                              HttpFields unauthorizedHeaders) {
+        String cacheKey = tokenKey(endpoint, scope);
+        Optional<String> current = cache.get(cacheKey).map(t -> BEARER + t);
+        if (current.isPresent() && !current.get().equals(rejected)) {
+            return CompletableFuture.completedFuture(current);
         }
-        Optional<AuthChallenge> ch = extractChallenge(pingResp.headers());
-        if (ch.isEmpty()) {
-            throw new ClientException(
-                    new ClientError.Auth(
-                            ClientError.AuthKind.MISSING_CHALLENGE,
-                            pingResp.statusCode(),
-                            "Missing WWW-Authenticate"),
-                    "Missing WWW-Authenticate challenge");
+        cache.invalidate(cacheKey);
+        Optional<AuthChallenge> fresh = extractChallenge(unauthorizedHeaders);
+        if (fresh.isEmpty()) {
+            onUnauthorized(endpoint, unauthorizedHeaders);
+            return getAuthHeaderAsync(endpoint, null, scope);
         }
-        AuthChallenge c = ch.get();
-        String token = fetchToken(c, endpoint.credentialsOpt().orElse(null), scope);
-        var ttlOpt = ttlFrom(pingResp.headers());
-        long ttl = ttlOpt.orElse(defaultTokenTtlSeconds);
-        if (ttlOpt.isEmpty()) {
-            LOGGER.warn("No token TTL in headers; using default {}s", defaultTokenTtlSeconds);
+        challenges.merge(pingUri(endpoint), new Ping(fresh.get(), null),
+                (known, update) -> new Ping(update.challenge(), known.tokenTtl()));
+        String tokenScope = mergeScopes(scope, fresh.get().scope());
+        LOGGER.info("Token for {} rejected, re-authenticating with scope {}", scope, tokenScope);
+        return tokenFlights.executeAsync(cacheKey, () -> fetchAuthHeader(endpoint, tokenScope, cacheKey, true));
+    }
+
+    /**
+     * Space separated union of both scopes, the requested one first.
+     */
+    private static String mergeScopes(String requested, String challenged) {
+        Set<String> scopes = new LinkedHashSet<>();
+        for (String part : (Objects.toString(requested, "") + " " + Objects.toString(challenged, "")).split(" ")) {
+            if (!part.isBlank()) {
+                scopes.add(part);
+            }
         }
-        cache.put(cacheKey, token, ttl); // fallback from config
-        return Optional.of("Bearer " + token);
+        return String.join(" ", scopes);
+    }
+
+    /**
+     * Challenge of the endpoint from the first /v2/ ping; later scopes go straight to the token endpoint.
+     */
+    private CompletableFuture<Ping> challenge(RegistryEndpoint endpoint) {
+        URI pingUri = pingUri(endpoint);
+        Ping known = challenges.get(pingUri);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        return Futures.map(http.headAsync(pingUri, Map.of()), pingResp -> {
+            Ping ping = switch (pingResp.statusCode()) {
+                case HttpStatus.OK_200 -> new Ping(null, null);
+                case HttpStatus.UNAUTHORIZED_401 -> new Ping(
+                        extractChallenge(pingResp.headers()).orElseThrow(() -> new ClientException(
+                                new ClientError.Auth(
+                                        ClientError.AuthKind.MISSING_CHALLENGE,
+                                        pingResp.statusCode(),
+                                        "Missing WWW-Authenticate"),
+                                "Missing WWW-Authenticate challenge")),
+                        ttlFrom(pingResp.headers()).orElse(null));
+                default -> throw new ClientException(
+                        new ClientError.Auth(
+                                ClientError.AuthKind.UNEXPECTED_PING_STATUS,
+                                pingResp.statusCode(),
+                                "Unexpected ping status"),
+                        "Unexpected ping status: " + pingResp.statusCode());
+            };
+            challenges.put(pingUri, ping);
+            return ping;
+        });
+    }
+
+    private static URI pingUri(RegistryEndpoint endpoint) {
+        return HttpRequestBuilder.buildUri(
+                endpoint.scheme(),
+                endpoint.host(),
+                endpoint.port(),
+                RegistryApi.V2_PING);
+    }
+
+    private static boolean sameIssuer(AuthChallenge a, AuthChallenge b) {
+        return a.realm().equals(b.realm()) && Objects.equals(a.service(), b.service());
     }
 
     private Optional<AuthChallenge> extractChallenge(HttpFields headers) {
@@ -108,42 +227,56 @@ public final class AuthService {
                 .findFirst();
     }
 
-    private String fetchToken(AuthChallenge challenge, Credentials creds, String scope) {
-        try {
-            StringBuilder url = new StringBuilder(challenge.realm());
-            if (challenge.service() != null) {
-                url.append("?service=")
-                        .append(URLEncoder.encode(challenge.service(), StandardCharsets.UTF_8));
-            }
-            if (scope != null && !scope.isBlank()) {
-                if (!url.toString().contains("?")) {
-                    url.append("?");
-                } else {
-                    url.append("&");
-                }
-                url.append("scope=")
-                        .append(URLEncoder.encode(scope, StandardCharsets.UTF_8));
+    private CompletableFuture<Token> fetchToken(AuthChallenge challenge, Credentials creds, String scope) {
+        StringBuilder url = new StringBuilder(challenge.realm());
+        if (challenge.service() != null) {
+            url.append("?service=")
+                    .append(URLEncoder.encode(challenge.service(), StandardCharsets.UTF_8));
+        }
+        // several scopes go as repeated scope parameters
+        for (String part : scope == null ? new String[0] : scope.trim().split("\\s+")) {
+            if (part.isEmpty()) {
+                continue;
             }
-            var headers = new HashMap<String, String>();
-            if (creds != null) {
-                creds.identityToken().ifPresent(id -> headers.put("Authorization", "Bearer " + id));
-                if (headers.isEmpty()) {
-                    String basic = creds.username().orElse("") + ":" + creds.password().orElse("");
-                    String enc = java.util.Base64.getEncoder()
-                            .encodeToString(basic.getBytes(StandardCharsets.UTF_8));
-                    headers.put("Authorization", "Basic " + enc);
-                }
+            if (!url.toString().contains("?")) {
+                url.append("?");
+            } else {
+                url.append("&");
             }
-            HttpResult<java.io.InputStream> resp = http.get(URI.create(url.toString()), headers);
-            if (resp.statusCode() != HttpStatus.OK_200) {
-                throw new ClientException(
-                        new ClientError.Auth(
-                                ClientError.AuthKind.TOKEN_FAILED,
-                                resp.statusCode(),
-                                "Token endpoint failed"),
-                        "Token endpoint status: " + resp.statusCode()
-                );
+            url.append("scope=")
+                    .append(URLEncoder.encode(part, StandardCharsets.UTF_8));
+        }
+        var headers = new HashMap<String, String>();
+        if (creds != null) {
+            creds.identityToken().ifPresent(id -> headers.put("Authorization", BEARER + id));
+            if (headers.isEmpty()) {
+                String basic = creds.username().orElse("") + ":" + creds.password().orElse("");
+                String enc = java.util.Base64.getEncoder()
+                        .encodeToString(basic.getBytes(StandardCharsets.UTF_8));
+                headers.put("Authorization", "Basic " + enc);
             }
+        }
+        var response = Futures.mapFailure(http.getBytesAsync(URI.create(url.toString()), headers),
+                failure -> failure instanceof IOException
+                        ? new ClientException(
+                                new ClientError.Auth(ClientError.AuthKind.TOKEN_FAILED, null, TOKEN_IO_ERROR),
+                                TOKEN_IO_ERROR,
+                                failure)
+                        : failure);
+        return Futures.map(response, this::parseToken);
+    }
+
+    private Token parseToken(HttpResult<byte[]> resp) {
+        if (resp.statusCode() != HttpStatus.OK_200) {
+            throw new ClientException(
+                    new ClientError.Auth(
+                            ClientError.AuthKind.TOKEN_FAILED,
+                            resp.statusCode(),
+                            "Token endpoint failed"),
+                    "Token endpoint status: " + resp.statusCode()
+            );
+        }
+        try {
             TokenResponse tr = mapper.readValue(resp.body(), TokenResponse.class);
             String token = Optional.ofNullable(tr.effectiveToken())
                     .orElseThrow(() -> new ClientException(
@@ -152,27 +285,23 @@ public final class AuthService {
                                     resp.statusCode(),
                                     "No token in response"),
                             "No token in response"));
-            long ttl = Optional.ofNullable(tr.expiresInSeconds()).orElse(defaultTokenTtlSeconds);
-            if (tr.expiresInSeconds() == null) {
-                LOGGER.warn("Token response missing expires_in; using default {}s", defaultTokenTtlSeconds);
-            }
-            cache.put(cacheKeyFromChallenge(challenge, scope, creds), token, ttl);
-            return token;
+            return new Token(token, tr.expiresInSeconds());
         } catch (IOException e) {
             throw new ClientException(
-                    new ClientError.Auth(ClientError.AuthKind.TOKEN_FAILED, null, "Token endpoint IO error"),
-                    "Token endpoint IO error",
+                    new ClientError.Auth(ClientError.AuthKind.TOKEN_FAILED, null, TOKEN_IO_ERROR),
+                    TOKEN_IO_ERROR,
                     e
             );
         }
     }
 
-    private String cacheKey(RegistryEndpoint endpoint, String scope) {
-        return endpoint.host() + "|" + scope + "|" + endpoint.credentialsOpt().map(Object::hashCode).orElse(0);
-    }
-
-    private String cacheKeyFromChallenge(AuthChallenge ch, String scope, Credentials creds) {
-        return (ch.realm() + "|" + ch.service() + "|" + scope + "|" + (creds == null ? 0 : creds.hashCode()));
+    /**
+     * The one key a token is cached under: registry origin, scope and a fingerprint of the credentials, so
+     * clients of the same registry and account share tokens through a common {@link TokenCache}.
+     */
+    private static String tokenKey(RegistryEndpoint endpoint, String scope) {
+        String identity = endpoint.credentialsOpt().map(Credentials::fingerprint).orElse("anonymous");
+        return pingUri(endpoint) + "|" + scope + "|" + identity;
     }
 
     private Optional<Long> ttlFrom(HttpFields headers) {
@@ -186,5 +315,15 @@ public final class AuthService {
             return Optional.empty();
         }
     }
-}
 
+    /**
+     * Outcome of a /v2/ ping: the Bearer challenge (null when the registry needs no auth) and the
+     * Docker-Token-Expires-In it announced, if any.
+     */
+    private record Ping(AuthChallenge challenge, Long tokenTtl) { }
+
+    /**
+     * Token from the token endpoint with its expires_in, if given.
+     */
+    private record Token(String value, Long expiresIn) { }
+}
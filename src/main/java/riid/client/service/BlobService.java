@@ -5,51 +5,92 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import riid.cache.CacheAdapter;
+import riid.cache.CacheStaging;
 import riid.cache.FilesystemCachePayload;
 import riid.client.api.BlobRequest;
 import riid.client.api.BlobResult;
 import riid.client.api.BlobSink;
 import riid.client.api.FileBlobSink;
+import riid.client.core.config.BlobDownloadConfig;
 import riid.client.core.config.RegistryEndpoint;
 import riid.cache.ValidationException;
 import riid.client.core.error.ClientError;
 import riid.client.core.error.ClientException;
 import riid.client.core.model.manifest.RegistryApi;
 import riid.client.http.HttpExecutor;
+import riid.client.http.BodyConsumer;
 import riid.client.http.HttpResult;
+import riid.concurrent.Futures;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Downloads blobs with optional Range and on-the-fly SHA256 validation.
  */
 public class BlobService implements BlobServiceApi {
     private static final Logger LOGGER = LoggerFactory.getLogger(BlobService.class);
+    private static final String BLOB_IO_ERROR = "Blob IO error";
+    private static final String CLOSE_RESOURCE = "PMD.CloseResource";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final int HASH_BUFFER_BYTES = 1 << 20;
 
     private final HttpExecutor http;
+    private final HttpExecutor cdn;
     private final AuthService authService;
     private final CacheAdapter cacheAdapter;
+    private final BlobDownloadConfig downloadConfig;
+    private final SignedUrlCache signedUrls = new SignedUrlCache();
 
     public BlobService(HttpExecutor http, AuthService authService) {
         this(http, authService, null);
     }
 
-    @SuppressFBWarnings({"EI_EXPOSE_REP2"})
     public BlobService(HttpExecutor http, AuthService authService, CacheAdapter cacheAdapter) {
+        this(http, authService, cacheAdapter, new BlobDownloadConfig());
+    }
+
+    public BlobService(HttpExecutor http,
+                       AuthService authService,
+                       CacheAdapter cacheAdapter,
+                       BlobDownloadConfig downloadConfig) {
+        this(http, http, authService, cacheAdapter, downloadConfig);
+    }
+
+    /**
+     * @param cdn executor for blob redirect targets (signed CDN URLs), normally a client with its own pool
+     */
+    @SuppressFBWarnings({"EI_EXPOSE_REP2"})
+    public BlobService(HttpExecutor http,
+                       HttpExecutor cdn,
+                       AuthService authService,
+                       CacheAdapter cacheAdapter,
+                       BlobDownloadConfig downloadConfig) {
         this.http = Objects.requireNonNull(http);
+        this.cdn = Objects.requireNonNull(cdn);
         this.authService = Objects.requireNonNull(authService);
         this.cacheAdapter = cacheAdapter;
+        this.downloadConfig = downloadConfig != null ? downloadConfig : new BlobDownloadConfig();
     }
 
     @Override
@@ -60,103 +101,438 @@ public class BlobService implements BlobServiceApi {
     }
 
     @Override
-    @SuppressWarnings("PMD.CloseResource")
-    //рефакторинг после убирания этого supress в RegistryClientImpl провалился.
-    //неочевидно как без supresss здесь реализовывать
     public BlobResult fetchBlob(RegistryEndpoint endpoint, BlobRequest req, BlobSink sink, String scope) {
+        return Futures.join(fetchBlobAsync(endpoint, req, sink, scope));
+    }
+
+    /**
+     * Streams the blob into the sink as chunks arrive, hashing on the fly; the sink is closed on completion.
+     */
+    @Override
+    public CompletableFuture<BlobResult> fetchBlobAsync(RegistryEndpoint endpoint,
+                                                        BlobRequest req,
+                                                        BlobSink sink,
+                                                        String scope) {
+        return fetchBlobAsync(endpoint, req, sink, scope, () -> { });
+    }
+
+    /**
+     * Same as {@link #fetchBlobAsync(RegistryEndpoint, BlobRequest, BlobSink, String)}; onFirstBytes runs on the
+     * Jetty thread when the first body chunk arrives (used to measure time to first byte).
+     */
+    public CompletableFuture<BlobResult> fetchBlobAsync(RegistryEndpoint endpoint,
+                                                        BlobRequest req,
+                                                        BlobSink sink,
+                                                        String scope,
+                                                        Runnable onFirstBytes) {
+        return fetch(endpoint, req, sink, scope, onFirstBytes, true);
+    }
+
+    /**
+     * One attempt of a download raced against others (hedging): writes only into file and leaves the cache alone,
+     * so racing attempts do not stage and commit the same digest; the caller puts the winner into the cache with
+     * {@link #cacheDownloaded}.
+     */
+    public CompletableFuture<BlobResult> fetchAttemptAsync(RegistryEndpoint endpoint,
+                                                           BlobRequest req,
+                                                           File file,
+                                                           String scope,
+                                                           Runnable onFirstBytes) {
+        return fetch(endpoint, req, new FileBlobSink(file), scope, onFirstBytes, false);
+    }
+
+    @SuppressWarnings(CLOSE_RESOURCE) // the sink and staging are closed when the download completes
+    private CompletableFuture<BlobResult> fetch(RegistryEndpoint endpoint,
+                                                BlobRequest req,
+                                                BlobSink sink,
+                                                String scope,
+                                                Runnable onFirstBytes,
+                                                boolean cached) {
         Objects.requireNonNull(sink, "sink");
+        Objects.requireNonNull(onFirstBytes, "onFirstBytes");
 
         URI uri = endpoint.uri(RegistryApi.blobPath(req.repository(), req.digest()));
+        // with a cache, file downloads go straight into its staging file instead of being copied in afterwards
+        CacheStaging staging = cached && sink instanceof FileBlobSink ? stage(req) : null;
+        BlobSink out = staging != null ? new FileBlobSink(staging.path().toFile()) : sink;
+        CompletableFuture<BlobResult> result = Futures.compose(
+                authService.getAuthHeaderAsync(endpoint, req.repository(), scope), auth -> {
+                    var download = fromRegistry(new RegistryCall(endpoint, uri, scope), auth, req, out, onFirstBytes,
+                            true);
+                    return Futures.map(download, resp -> {
+                        if (resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+                            authService.onUnauthorized(endpoint, resp.headers());
+                        }
+                        return complete(req, sink, staging, cached, resp);
+                    });
+                });
+        result.whenComplete((r, failure) -> {
+            try {
+                sink.close();
+                if (staging != null) {
+                    staging.close(); // deletes the staging file unless it was committed
+                }
+            } catch (Exception closeEx) {
+                LOGGER.warn("Failed to close sink: {}", closeEx.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Downloads with the given Authorization; a 401 re-authenticates and replays once if mayReauth. Non-2xx
+     * answers never reach the sink, so the replay writes into it from the start.
+     */
+    private CompletableFuture<HttpResult<Written>> fromRegistry(RegistryCall call,
+                                                                Optional<String> auth,
+                                                                BlobRequest req,
+                                                                BlobSink out,
+                                                                Runnable onFirstBytes,
+                                                                boolean mayReauth) {
         Map<String, String> headers = defaultHeaders();
-        authService.getAuthHeader(endpoint, req.repository(), scope).ifPresent(v -> headers.put("Authorization", v));
-        HttpResult<InputStream> resp = http.get(uri, headers);
+        auth.ifPresent(v -> headers.put(AUTHORIZATION, v));
+        Source registry = new Source(http, call.uri(), headers, false);
+        var download = Futures.mapFailure(fetchBody(registry, req, out, onFirstBytes), BlobService::ioFailure);
+        if (!mayReauth) {
+            return download;
+        }
+        return Futures.compose(download, resp -> {
+            if (resp.statusCode() != HttpStatus.UNAUTHORIZED_401) {
+                return CompletableFuture.completedFuture(resp);
+            }
+            var fresh = authService.reauthenticate(call.endpoint(), call.scope(), auth.orElse(null), resp.headers());
+            return Futures.compose(fresh, retried -> fromRegistry(call, retried, req, out, onFirstBytes, false));
+        });
+    }
+
+    /**
+     * Downloads from the signed CDN URL this registry gave for the digest if one is cached, otherwise from it.
+     * Registry redirects are followed here rather than by Jetty: the CDN request goes through the CDN client
+     * without the registry's Authorization, and the signed URL is kept for later downloads of the same digest from
+     * the same registry (mirrors get their own).
+     */
+    private CompletableFuture<HttpResult<Written>> fetchBody(Source registry,
+                                                             BlobRequest req,
+                                                             BlobSink out,
+                                                             Runnable onFirstBytes) {
+        String origin = registry.uri().getRawAuthority();
+        Optional<URI> signed = signedUrls.get(origin, req.digest());
+        if (signed.isEmpty()) {
+            return fromRegistry(registry, req, out, onFirstBytes);
+        }
+        return Futures.compose(download(cdnSource(signed.get()), req, out, onFirstBytes), resp -> {
+            int status = resp.statusCode();
+            if (status < HttpStatus.BAD_REQUEST_400 || status >= HttpStatus.INTERNAL_SERVER_ERROR_500) {
+                return CompletableFuture.completedFuture(resp);
+            }
+            LOGGER.info("Cached CDN URL of blob {} rejected with {}, asking the registry again", req.digest(), status);
+            signedUrls.invalidate(origin, req.digest());
+            return fromRegistry(registry, req, out, onFirstBytes);
+        });
+    }
+
+    private CompletableFuture<HttpResult<Written>> fromRegistry(Source registry,
+                                                                BlobRequest req,
+                                                                BlobSink out,
+                                                                Runnable onFirstBytes) {
+        return Futures.compose(download(registry, req, out, onFirstBytes), resp -> {
+            Optional<URI> target = redirectTarget(resp);
+            if (target.isEmpty()) {
+                return CompletableFuture.completedFuture(resp);
+            }
+            signedUrls.put(registry.uri().getRawAuthority(), req.digest(), target.get());
+            LOGGER.debug("Blob {} redirected to {}", req.digest(), target.get().getHost());
+            return download(cdnSource(target.get()), req, out, onFirstBytes);
+        });
+    }
+
+    @SuppressWarnings(CLOSE_RESOURCE) // a FileBlobSink owns nothing; the channel is closed by BlobWriter
+    private CompletableFuture<HttpResult<Written>> download(Source source,
+                                                            BlobRequest req,
+                                                            BlobSink out,
+                                                            Runnable onFirstBytes) {
+        long size = req.expectedSizeBytes() != null ? req.expectedSizeBytes() : -1;
+        if (!(out instanceof FileBlobSink file) || !downloadConfig.segmented(size)) {
+            return streamWhole(source, req, out, onFirstBytes);
+        }
+        return Futures.recover(fetchSegmented(source, file.file(), size, onFirstBytes), e -> {
+            if (!(e instanceof RangeNotSupportedException)) {
+                return CompletableFuture.failedFuture(e);
+            }
+            LOGGER.info("Range not honoured for blob {}, downloading as one stream", req.digest());
+            return streamWhole(source, req, out, onFirstBytes);
+        });
+    }
+
+    private static Optional<URI> redirectTarget(HttpResult<?> resp) {
+        if (!HttpStatus.isRedirection(resp.statusCode()) || resp.statusCode() == HttpStatus.NOT_MODIFIED_304) {
+            return Optional.empty();
+        }
+        return resp.firstHeader("Location").map(location -> resp.uri().resolve(location));
+    }
+
+    private Source cdnSource(URI signed) {
+        return new Source(cdn, signed, defaultHeaders(), true);
+    }
+
+    /**
+     * One GET for the whole blob; if the body breaks off, the download continues from the bytes already
+     * written and hashed with {@code Range: bytes=<offset>-}.
+     */
+    private CompletableFuture<HttpResult<Written>> streamWhole(Source source,
+                                                               BlobRequest req,
+                                                               BlobSink out,
+                                                               Runnable onFirstBytes) {
+        AtomicReference<BlobWriter> writer = new AtomicReference<>();
+        var first = source.stream(source.headers(), resp -> {
+            BlobWriter created = new BlobWriter(req, out, resp, onFirstBytes);
+            BlobWriter previous = writer.getAndSet(created);
+            if (previous != null) {
+                previous.close(); // headers of a retried attempt arrived, the body never did
+            }
+            return created;
+        });
+        var result = resumeAfter(first, source, req, writer, 1);
+        result.whenComplete((resp, failure) -> {
+            BlobWriter last = writer.get();
+            if (last != null) {
+                last.close();
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<HttpResult<Written>> resumeAfter(CompletableFuture<HttpResult<Written>> attempt,
+                                                               Source source,
+                                                               BlobRequest req,
+                                                               AtomicReference<BlobWriter> writer,
+                                                               int resume) {
+        return Futures.recover(attempt, failure -> {
+            BlobWriter current = writer.get();
+            if (!(failure instanceof IOException)
+                    || current == null
+                    || !current.resumable()
+                    || resume > downloadConfig.maxResumes()) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            LOGGER.info("Resuming blob {} from byte {} ({}/{}): {}", req.digest(), current.offset(), resume,
+                    downloadConfig.maxResumes(), failure.getMessage());
+            Map<String, String> rangeHeaders = new LinkedHashMap<>(source.headers());
+            rangeHeaders.put("Range", HttpExecutor.rangeHeader(current.offset(), null));
+            var next = source.stream(rangeHeaders, current::resume);
+            return resumeAfter(next, source, req, writer, resume + 1);
+        });
+    }
+
+    /**
+     * Parallel Range requests, each written at its offset of the preallocated file; the whole file is
+     * hashed once all segments arrived. Fails with RangeNotSupportedException if the server ignores Range.
+     */
+    @SuppressWarnings(CLOSE_RESOURCE) // the channel is closed once all segments completed
+    private CompletableFuture<HttpResult<Written>> fetchSegmented(Source source,
+                                                                  File file,
+                                                                  long size,
+                                                                  Runnable onFirstBytes) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            channel.write(ByteBuffer.allocate(1), size - 1); // preallocate, segments fill the rest
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return CompletableFuture.failedFuture(e);
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        Runnable firstBytes = () -> {
+            if (started.compareAndSet(false, true)) {
+                onFirstBytes.run();
+            }
+        };
+        long segmentSize = Math.ceilDiv(size, downloadConfig.segments());
+        List<CompletableFuture<HttpResult<Long>>> parts = new ArrayList<>();
+        for (long start = 0; start < size; start += segmentSize) {
+            long offset = start;
+            long end = Math.min(size, start + segmentSize) - 1;
+            Map<String, String> rangeHeaders = new LinkedHashMap<>(source.headers());
+            rangeHeaders.put("Range", HttpExecutor.rangeHeader(offset, end));
+            parts.add(source.stream(rangeHeaders, resp -> new SegmentWriter(resp, channel, offset, end, firstBytes)));
+        }
+        var all = Futures.allOrCancel(parts);
+        all.whenComplete((responses, failure) -> closeQuietly(channel));
+        return Futures.compose(all, responses -> {
+            for (HttpResult<Long> part : responses) {
+                if (part.statusCode() < 200 || part.statusCode() >= 300) {
+                    return CompletableFuture.completedFuture(
+                            new HttpResult<>(part.statusCode(), part.headers(), null, source.uri()));
+                }
+            }
+            HttpResult<Long> first = responses.getFirst();
+            // hashing reads the whole file, so keep it off the network callback
+            return CompletableFuture.supplyAsync(
+                    () -> new HttpResult<>(first.statusCode(), first.headers(), hashFile(file, size), source.uri()),
+                    source.http().executor());
+        });
+    }
+
+    private static Written hashFile(File file, long expectedSize) {
+        MessageDigest md = sha256();
+        long read = 0;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES);
+            int n = in.read(buffer);
+            while (n >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+                read += n;
+                n = in.read(buffer);
+            }
+        } catch (IOException e) {
+            throw new ClientException(
+                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                    BLOB_IO_ERROR,
+                    e);
+        }
+        return new Written("sha256:" + bytesToHex(md.digest()), read, expectedSize);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close blob file: {}", e.getMessage());
+        }
+    }
+
+    private CacheStaging stage(BlobRequest req) {
+        if (cacheAdapter == null) {
+            return null;
+        }
+        try {
+            return cacheAdapter.stage(riid.cache.ImageDigest.parse(req.digest())).orElse(null);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Cannot stage blob {} in cache, downloading to the target: {}", req.digest(), e.getMessage());
+            return null;
+        }
+    }
+
+    @SuppressWarnings(CLOSE_RESOURCE) // the sink and staging are closed by fetchBlobAsync
+    private BlobResult complete(BlobRequest req,
+                                BlobSink sink,
+                                CacheStaging staging,
+                                boolean cached,
+                                HttpResult<Written> resp) {
         int status = resp.statusCode();
         if (status < 200 || status >= 300) {
             throw new ClientException(
                     new ClientError.Http(ClientError.HttpKind.BAD_STATUS, status, "Blob fetch failed"),
                     "Blob fetch failed: " + status);
         }
+        Written written = resp.body();
+        validateDigest(written.digest(), req.digest());
+        validateSize(written.size(), written.expectedSize());
+        String mediaType = resp.firstHeader("Content-Type").orElse(req.mediaType());
+        String locator = sink.locator();
+        if (cached && sink instanceof FileBlobSink fbs) {
+            locator = commitToCache(written.digest(), written.size(), mediaType, fbs.file().toPath(), staging)
+                    .orElse(locator);
+        }
+        return new BlobResult(written.digest(), written.size(), mediaType, locator);
+    }
 
-        long expectedSize = req.expectedSizeBytes() != null
-                ? req.expectedSizeBytes()
-                : resp.firstHeaderAsLong("Content-Length").orElse(-1);
-        if (expectedSize <= 0) {
-            LOGGER.warn("Missing Content-Length for blob {}", req.digest());
+    /**
+     * Hands a blob downloaded by {@link #fetchAttemptAsync} (digest already verified) over to the cache: the file
+     * is moved into a cache staging file and committed, so it is not copied; without staging support it is put.
+     *
+     * @return the result pointing at the cache entry; unchanged without a cache
+     */
+    public BlobResult cacheDownloaded(BlobResult blob) {
+        Path file = Path.of(blob.path());
+        BlobRequest req = new BlobRequest(null, blob.digest(), blob.size(), blob.mediaType());
+        try (CacheStaging staging = stage(req)) {
+            if (staging != null) {
+                Files.move(file, staging.path(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return commitToCache(blob.digest(), blob.size(), blob.mediaType(), file, staging)
+                    .map(locator -> new BlobResult(blob.digest(), blob.size(), blob.mediaType(), locator))
+                    .orElse(blob);
+        } catch (IOException e) {
             throw new ClientException(
-                    new ClientError.Parse(ClientError.ParseKind.MANIFEST, "Missing Content-Length for blob"),
-                    "Missing Content-Length for blob download");
+                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                    BLOB_IO_ERROR,
+                    e);
         }
-        Path sinkPath = null;
-        if (sink instanceof FileBlobSink fbs) {
-            sinkPath = fbs.file().toPath();
+    }
+
+    /**
+     * Commits the staging file, or copies the verified file into the cache if nothing was staged.
+     *
+     * @return path of the cache entry, empty without a cache
+     */
+    @SuppressWarnings(CLOSE_RESOURCE) // the staging is closed by fetchBlobAsync
+    private Optional<String> commitToCache(String digest, long size, String mediaType, Path file,
+                                           CacheStaging staging) {
+        if (cacheAdapter == null) {
+            return Optional.empty();
         }
-        InputStream is = null;
-        java.io.OutputStream os = null;
         try {
-            is = resp.body();
-            os = sink.open();
-            String digest = writeAndHashStreaming(is, os);
-            validateDigest(digest, req.digest());
-            long actualSize = sinkPath != null ? sinkPath.toFile().length() : expectedSize;
-            validateSize(actualSize, expectedSize);
-            String mediaType = resp.firstHeader("Content-Type").orElse(req.mediaType());
-            String locator = sink.locator();
-            if (cacheAdapter != null && sinkPath != null) {
-                try {
-                    var entry = cacheAdapter.put(
-                            riid.cache.ImageDigest.parse(digest),
-                            FilesystemCachePayload.of(sinkPath, actualSize),
-                            riid.cache.CacheMediaType.from(mediaType));
-                    if (entry != null && entry.key() != null && !entry.key().isBlank()) {
-                        locator = cacheAdapter.resolve(entry.key()).map(Path::toString).orElse(locator);
-                    }
-                } catch (ValidationException ve) {
-                    throw new ClientException(
-                            new ClientError.Parse(ClientError.ParseKind.MANIFEST, ve.getMessage()),
-                            "Invalid blob media type: " + mediaType,
-                            ve);
-                } catch (IllegalArgumentException iae) {
-                    throw new ClientException(
-                            new ClientError.Parse(ClientError.ParseKind.MANIFEST, iae.getMessage()),
-                            "Invalid blob media type: " + mediaType,
-                            iae);
-                }
+            var type = riid.cache.CacheMediaType.from(mediaType);
+            // the digest was verified before, so the file can be committed as is
+            var entry = staging != null
+                    ? staging.commit(size, type)
+                    : cacheAdapter.put(riid.cache.ImageDigest.parse(digest), FilesystemCachePayload.of(file, size),
+                            type);
+            if (entry == null || entry.key() == null || entry.key().isBlank()) {
+                return Optional.empty();
             }
-            return new BlobResult(digest, actualSize, mediaType, locator);
+            return cacheAdapter.resolve(entry.key()).map(Path::toString);
+        } catch (ValidationException ve) {
+            throw new ClientException(
+                    new ClientError.Parse(ClientError.ParseKind.MANIFEST, ve.getMessage()),
+                    "Invalid blob media type: " + mediaType,
+                    ve);
+        } catch (IllegalArgumentException iae) {
+            throw new ClientException(
+                    new ClientError.Parse(ClientError.ParseKind.MANIFEST, iae.getMessage()),
+                    "Invalid blob media type: " + mediaType,
+                    iae);
         } catch (IOException e) {
             throw new ClientException(
-                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, status, "Blob IO error"),
-                    "Blob IO error",
+                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                    BLOB_IO_ERROR,
                     e);
-        } finally {
-            try {
-                sink.close();
-            } catch (Exception closeEx) {
-                LOGGER.warn("Failed to close sink: {}", closeEx.getMessage());
-            }
-            if (os != null) {
-                try {
-                    os.close();
-                } catch (IOException ignore) {
-                    LOGGER.warn("Failed to close sink stream: {}", ignore.getMessage());
-                }
-            }
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException ignore) {
-                    LOGGER.warn("Failed to close response stream: {}", ignore.getMessage());
-                }
-            }
         }
     }
 
+    private static Throwable ioFailure(Throwable failure) {
+        if (failure instanceof IOException) {
+            return new ClientException(
+                    new ClientError.Http(ClientError.HttpKind.BAD_STATUS, null, BLOB_IO_ERROR),
+                    BLOB_IO_ERROR,
+                    failure);
+        }
+        return failure;
+    }
+
     public Optional<Long> headBlob(RegistryEndpoint endpoint, String repository, String digest, String scope) {
         URI uri = endpoint.uri(RegistryApi.blobPath(repository, digest));
         Map<String, String> headers = defaultHeaders();
-        authService.getAuthHeader(endpoint, repository, scope).ifPresent(v -> headers.put("Authorization", v));
+        Optional<String> auth = authService.getAuthHeader(endpoint, repository, scope);
+        auth.ifPresent(v -> headers.put(AUTHORIZATION, v));
         HttpResult<Void> resp = http.head(uri, headers);
+        if (resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+            Futures.join(authService.reauthenticate(endpoint, scope, auth.orElse(null), resp.headers()))
+                    .ifPresent(v -> headers.put(AUTHORIZATION, v));
+            resp = http.head(uri, headers);
+        }
         int code = resp.statusCode();
+        if (code == HttpStatus.UNAUTHORIZED_401) {
+            authService.onUnauthorized(endpoint, resp.headers());
+        }
         if (code == HttpStatus.NOT_FOUND_404) {
             return Optional.empty();
         }
@@ -192,21 +568,15 @@ public class BlobService implements BlobServiceApi {
         }
     }
 
-    private String writeAndHashStreaming(InputStream is, java.io.OutputStream os) throws IOException {
-        MessageDigest md;
+    private static MessageDigest sha256() {
         try {
-            md = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new ClientException(
                     new ClientError.Parse(ClientError.ParseKind.MANIFEST, "SHA-256 not available"),
                     "SHA-256 not available",
                     e);
         }
-        try (DigestInputStream dis = new DigestInputStream(is, md)) {
-            dis.transferTo(os);
-        }
-        String hex = bytesToHex(md.digest());
-        return "sha256:" + hex;
     }
 
     private static String bytesToHex(byte[] bytes) {
@@ -217,5 +587,169 @@ public class BlobService implements BlobServiceApi {
         }
         return sb.toString();
     }
-}
 
+    private record Written(String digest, long size, long expectedSize) { }
+
+    /**
+     * Registry, blob URI and token scope of one blob download.
+     */
+    private record RegistryCall(RegistryEndpoint endpoint, URI uri, String scope) { }
+
+    /**
+     * Where a blob body is fetched from: the registry (with Authorization, redirects handled by us) or a CDN URL.
+     */
+    private record Source(HttpExecutor http, URI uri, Map<String, String> headers, boolean followRedirects) {
+        <T> CompletableFuture<HttpResult<T>> stream(Map<String, String> requestHeaders,
+                                                    Function<HttpResult<Void>, BodyConsumer<T>> consumers) {
+            return http.streamAsync(uri, requestHeaders, consumers, followRedirects);
+        }
+    }
+
+    /**
+     * Writes response chunks into the sink and feeds the same bytes to SHA-256.
+     * The channel and digest survive a failed exchange, so a Range request can continue where the body broke off;
+     * the owner closes the writer once the download is over.
+     */
+    private static final class BlobWriter implements BodyConsumer<Written> {
+        private final MessageDigest md = sha256();
+        private final long expectedSize;
+        private final WritableByteChannel out;
+        private final Runnable onFirstBytes;
+        private long written;
+        private boolean broken;
+
+        BlobWriter(BlobRequest req, BlobSink sink, HttpResult<Void> resp, Runnable onFirstBytes) {
+            this.onFirstBytes = onFirstBytes;
+            this.expectedSize = req.expectedSizeBytes() != null
+                    ? req.expectedSizeBytes()
+                    : resp.firstHeaderAsLong("Content-Length").orElse(-1);
+            if (expectedSize <= 0) {
+                LOGGER.warn("Missing Content-Length for blob {}", req.digest());
+                throw new ClientException(
+                        new ClientError.Parse(ClientError.ParseKind.MANIFEST, "Missing Content-Length for blob"),
+                        "Missing Content-Length for blob download");
+            }
+            try {
+                this.out = sink.openChannel();
+            } catch (IOException e) {
+                throw new ClientException(
+                        new ClientError.Http(ClientError.HttpKind.BAD_STATUS, resp.statusCode(), BLOB_IO_ERROR),
+                        BLOB_IO_ERROR,
+                        e);
+            }
+        }
+
+        @Override
+        public void onContent(ByteBuffer chunk) throws IOException {
+            if (written == 0 && chunk.hasRemaining()) {
+                onFirstBytes.run();
+            }
+            md.update(chunk.duplicate());
+            try {
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk);
+                }
+            } catch (IOException e) {
+                broken = true; // local write failure: file and digest disagree, nothing to resume
+                throw e;
+            }
+        }
+
+        @Override
+        public Written complete() throws IOException {
+            out.close();
+            return new Written("sha256:" + bytesToHex(md.digest()), written, expectedSize);
+        }
+
+        @Override
+        public void abort(Throwable failure) {
+            // keep the channel open for a resume; see close()
+        }
+
+        boolean resumable() {
+            return !broken && written > 0 && written < expectedSize;
+        }
+
+        long offset() {
+            return written;
+        }
+
+        /**
+         * Consumer for the Range request that continues this body.
+         */
+        BodyConsumer<Written> resume(HttpResult<Void> resp) {
+            String expected = "bytes " + written + "-";
+            boolean continues = resp.statusCode() == HttpStatus.PARTIAL_CONTENT_206
+                    && resp.firstHeader("Content-Range").filter(v -> v.startsWith(expected)).isPresent();
+            if (!continues) {
+                throw new RangeNotSupportedException();
+            }
+            return this;
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close sink channel: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes one Range response at its offset of the shared file (positional writes, no shared position).
+     */
+    private static final class SegmentWriter implements BodyConsumer<Long> {
+        private final FileChannel channel;
+        private final long length;
+        private final Runnable onFirstBytes;
+        private long position;
+        private long written;
+
+        SegmentWriter(HttpResult<Void> resp, FileChannel channel, long start, long end, Runnable onFirstBytes) {
+            boolean ranged = resp.statusCode() == HttpStatus.PARTIAL_CONTENT_206
+                    && resp.firstHeader("Content-Range").filter(v -> v.startsWith("bytes " + start + "-")).isPresent();
+            if (!ranged) {
+                throw new RangeNotSupportedException();
+            }
+            this.channel = channel;
+            this.position = start;
+            this.length = end - start + 1;
+            this.onFirstBytes = onFirstBytes;
+        }
+
+        @Override
+        public void onContent(ByteBuffer chunk) throws IOException {
+            if (written == 0 && chunk.hasRemaining()) {
+                onFirstBytes.run();
+            }
+            while (chunk.hasRemaining()) {
+                int n = channel.write(chunk, position);
+                position += n;
+                written += n;
+            }
+            if (written > length) {
+                throw new IOException("Segment longer than requested: " + written + " > " + length);
+            }
+        }
+
+        @Override
+        public Long complete() throws IOException {
+            if (written != length) {
+                throw new IOException("Segment truncated: " + written + " of " + length + " bytes");
+            }
+            return written;
+        }
+    }
+
+    /**
+     * The server answered a Range request with the whole body (or a different range).
+     */
+    private static final class RangeNotSupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RangeNotSupportedException() {
+            super("Range request not honoured");
+        }
+    }
+}
@@ -9,6 +9,7 @@ import riid.client.core.error.ClientException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Blob service contract.
@@ -16,6 +17,16 @@ import java.io.IOException;
 public interface BlobServiceApi {
     BlobResult fetchBlob(RegistryEndpoint endpoint, BlobRequest req, BlobSink sink, String scope);
 
+    CompletableFuture<BlobResult> fetchBlobAsync(
+            RegistryEndpoint endpoint, BlobRequest req, BlobSink sink, String scope);
+
+    default CompletableFuture<BlobResult> fetchBlobAsync(RegistryEndpoint endpoint,
+                                                         BlobRequest req,
+                                                         File target,
+                                                         String scope) {
+        return fetchBlobAsync(endpoint, req, new riid.client.api.FileBlobSink(target), scope);
+    }
+
     default BlobResult fetchBlob(RegistryEndpoint endpoint, BlobRequest req, File target, String scope) {
         try (BlobSink sink = new riid.client.api.FileBlobSink(target)) {
             return fetchBlob(endpoint, req, sink, scope);
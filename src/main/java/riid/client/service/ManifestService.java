@@ -17,6 +17,7 @@ import riid.client.core.model.manifest.MediaTypes;
 import riid.client.core.model.manifest.RegistryApi;
 import riid.client.http.HttpExecutor;
 import riid.client.http.HttpResult;
+import riid.concurrent.Futures;
 
 import java.io.IOException;
 import java.net.URI;
@@ -25,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Fetches and validates manifests.
@@ -38,6 +40,8 @@ public final class ManifestService implements ManifestServiceApi {
             MediaTypes.DOCKER_MANIFEST_LIST
     );
 
+    private static final String AUTHORIZATION = "Authorization";
+
     private final HttpExecutor http;
     private final AuthService authService;
     private final ObjectMapper mapper;
@@ -51,18 +55,50 @@ public final class ManifestService implements ManifestServiceApi {
     @Override
     public ManifestResult fetchManifest(
             RegistryEndpoint endpoint, String repository, String reference, String scope) {
+        return Futures.join(fetchManifestAsync(endpoint, repository, reference, scope));
+    }
+
+    @Override
+    public CompletableFuture<ManifestResult> fetchManifestAsync(
+            RegistryEndpoint endpoint, String repository, String reference, String scope) {
         URI uri = endpoint.uri(RegistryApi.manifestPath(repository, reference));
+        return Futures.compose(authService.getAuthHeaderAsync(endpoint, repository, scope),
+                auth -> getManifest(uri, auth, endpoint, repository, scope, true));
+    }
+
+    /**
+     * GET with the given Authorization; a 401 re-authenticates and replays once if mayReauth.
+     */
+    private CompletableFuture<ManifestResult> getManifest(URI uri,
+                                                          Optional<String> auth,
+                                                          RegistryEndpoint endpoint,
+                                                          String repository,
+                                                          String scope,
+                                                          boolean mayReauth) {
         Map<String, String> headers = defaultHeaders();
-        authService.getAuthHeader(endpoint, repository, scope)
-                .ifPresent(v -> headers.put("Authorization", v));
-        HttpResult<java.io.InputStream> resp = http.get(uri, headers);
+        auth.ifPresent(v -> headers.put(AUTHORIZATION, v));
+        return Futures.compose(http.getBytesAsync(uri, headers), resp -> {
+            if (mayReauth && resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+                return Futures.compose(
+                        authService.reauthenticate(endpoint, scope, auth.orElse(null), resp.headers()),
+                        fresh -> getManifest(uri, fresh, endpoint, repository, scope, false));
+            }
+            return handleManifest(resp, endpoint, repository, scope);
+        });
+    }
+
+    private CompletableFuture<ManifestResult> handleManifest(
+            HttpResult<byte[]> resp, RegistryEndpoint endpoint, String repository, String scope) {
+        if (resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+            authService.onUnauthorized(endpoint, resp.headers());
+        }
         if (resp.statusCode() != HttpStatus.OK_200) {
             throw new ClientException(
                     new ClientError.Http(ClientError.HttpKind.BAD_STATUS, resp.statusCode(), "Manifest fetch failed"),
                     "Manifest fetch failed: " + resp.statusCode());
         }
-        try (var body = resp.body()) {
-            byte[] bytes = body.readAllBytes();
+        try {
+            byte[] bytes = resp.body();
             String contentType = resp.firstHeader("Content-Type").orElse(null);
             // Detect manifest list / index
             boolean isIndex = isIndexMediaType(contentType) || looksLikeIndex(bytes);
@@ -75,7 +111,7 @@ public final class ManifestService implements ManifestServiceApi {
                             "Empty manifest list");
                 }
                 // Recursively fetch the referenced manifest by digest
-                return fetchManifest(endpoint, repository, selected.digest(), scope);
+                return fetchManifestAsync(endpoint, repository, selected.digest(), scope);
             }
 
             String computedDigest = "sha256:" + Digests.sha256Hex(bytes);
@@ -84,7 +120,7 @@ public final class ManifestService implements ManifestServiceApi {
                     .orElse(manifest.mediaType());
             long len = bytes.length;
             validateDigestHeader(resp.headers(), computedDigest);
-            return new ManifestResult(computedDigest, mediaType, len, manifest);
+            return CompletableFuture.completedFuture(new ManifestResult(computedDigest, mediaType, len, manifest));
         } catch (IOException e) {
             throw new ClientException(
                     new ClientError.Parse(ClientError.ParseKind.MANIFEST, "Failed to parse manifest"),
@@ -98,9 +134,17 @@ public final class ManifestService implements ManifestServiceApi {
             RegistryEndpoint endpoint, String repository, String reference, String scope) {
         URI uri = endpoint.uri(RegistryApi.manifestPath(repository, reference));
         Map<String, String> headers = defaultHeaders();
-        authService.getAuthHeader(endpoint, repository, scope)
-                .ifPresent(v -> headers.put("Authorization", v));
+        Optional<String> auth = authService.getAuthHeader(endpoint, repository, scope);
+        auth.ifPresent(v -> headers.put(AUTHORIZATION, v));
         HttpResult<Void> resp = http.head(uri, headers);
+        if (resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+            Futures.join(authService.reauthenticate(endpoint, scope, auth.orElse(null), resp.headers()))
+                    .ifPresent(v -> headers.put(AUTHORIZATION, v));
+            resp = http.head(uri, headers);
+        }
+        if (resp.statusCode() == HttpStatus.UNAUTHORIZED_401) {
+            authService.onUnauthorized(endpoint, resp.headers());
+        }
         if (resp.statusCode() == HttpStatus.NOT_FOUND_404) {
             return Optional.empty();
         }
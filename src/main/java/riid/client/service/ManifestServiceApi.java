@@ -4,6 +4,7 @@ import riid.client.api.ManifestResult;
 import riid.client.core.config.RegistryEndpoint;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manifest service contract.
@@ -11,6 +12,9 @@ import java.util.Optional;
 public interface ManifestServiceApi {
     ManifestResult fetchManifest(RegistryEndpoint endpoint, String repository, String reference, String scope);
 
+    CompletableFuture<ManifestResult> fetchManifestAsync(
+            RegistryEndpoint endpoint, String repository, String reference, String scope);
+
     Optional<ManifestResult> headManifest(RegistryEndpoint endpoint, String repository, String reference, String scope);
 }
 
@@ -0,0 +1,112 @@
+package riid.client.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Signed CDN URLs that registries redirected blob GETs to, per registry and digest, until shortly before they
+ * expire. Keying by registry keeps mirrors sharing one BlobService on their own redirects.
+ * The expiry is read from the URL (S3 X-Amz-Date + X-Amz-Expires, CloudFront/GCS Expires); URLs without one are
+ * kept for a short default time.
+ */
+final class SignedUrlCache {
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(1);
+    private static final Duration SAFETY_MARGIN = Duration.ofSeconds(30);
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private final Cache<Key, Entry> cache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfter(new Expiry<Key, Entry>() {
+                @Override
+                public long expireAfterCreate(Key key, Entry value, long currentTime) {
+                    return value.ttl().toNanos();
+                }
+
+                @Override
+                public long expireAfterUpdate(Key key, Entry value, long currentTime, long currentDuration) {
+                    return value.ttl().toNanos();
+                }
+
+                @Override
+                public long expireAfterRead(Key key, Entry value, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .build();
+
+    Optional<URI> get(String registry, String digest) {
+        Entry e = cache.getIfPresent(new Key(registry, digest));
+        return e != null ? Optional.of(e.uri()) : Optional.empty();
+    }
+
+    void put(String registry, String digest, URI uri) {
+        Duration ttl = ttl(uri, Instant.now());
+        if (ttl.isPositive()) {
+            cache.put(new Key(registry, digest), new Entry(uri, ttl));
+        }
+    }
+
+    void invalidate(String registry, String digest) {
+        cache.invalidate(new Key(registry, digest));
+    }
+
+    /**
+     * How long the URL can still be used, minus a safety margin; zero if it should not be cached at all.
+     */
+    static Duration ttl(URI uri, Instant now) {
+        return expiry(query(uri))
+                .map(expires -> Duration.between(now, expires).minus(SAFETY_MARGIN))
+                .map(left -> left.isNegative() ? Duration.ZERO : left)
+                .orElse(DEFAULT_TTL);
+    }
+
+    private static Optional<Instant> expiry(Map<String, String> query) {
+        try {
+            if (query.containsKey("x-amz-date") && query.containsKey("x-amz-expires")) {
+                Instant signed = LocalDateTime.parse(query.get("x-amz-date"), AMZ_DATE).toInstant(ZoneOffset.UTC);
+                return Optional.of(signed.plusSeconds(Long.parseLong(query.get("x-amz-expires"))));
+            }
+            if (query.containsKey("expires")) {
+                return Optional.of(Instant.ofEpochSecond(Long.parseLong(query.get("expires"))));
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return Optional.empty();
+        }
+        return Optional.empty();
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).toLowerCase(Locale.ROOT),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private record Key(String registry, String digest) { }
+
+    private record Entry(URI uri, Duration ttl) { }
+}
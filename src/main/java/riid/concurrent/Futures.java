@@ -0,0 +1,212 @@
+package riid.concurrent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * CompletableFuture helpers shared by the async client and dispatcher.
+ * {@link #compose} and {@link #map} differ from thenCompose/thenApply in that cancelling the returned future
+ * also cancels the step that is currently running (e.g. aborts the in-flight HTTP exchange).
+ */
+public final class Futures {
+    private Futures() { }
+
+    /**
+     * Block for the result, rethrowing the original failure instead of an ExecutionException.
+     * Interrupting the waiting thread cancels the future.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for result", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Strip CompletionException/ExecutionException wrappers.
+     */
+    public static Throwable unwrap(Throwable failure) {
+        Throwable current = failure;
+        while ((current instanceof CompletionException || current instanceof ExecutionException)
+                && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    /**
+     * Convert a failure into an unchecked exception suitable for blocking callers.
+     */
+    public static RuntimeException rethrow(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof RuntimeException re) {
+            return re;
+        }
+        if (cause instanceof Error err) {
+            throw err;
+        }
+        if (cause instanceof IOException io) {
+            return new UncheckedIOException(io);
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Like thenCompose, but cancellation of the result is forwarded to whichever stage is running.
+     */
+    public static <A, B> CompletableFuture<B> compose(CompletableFuture<A> first,
+                                                      Function<? super A, ? extends CompletableFuture<B>> next) {
+        Objects.requireNonNull(first, "first");
+        Objects.requireNonNull(next, "next");
+        CompletableFuture<B> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>(first);
+        first.whenComplete((value, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(unwrap(failure));
+                return;
+            }
+            CompletableFuture<B> second;
+            try {
+                second = next.apply(value);
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            current.set(second);
+            if (result.isCancelled()) {
+                second.cancel(true);
+            }
+            second.whenComplete((v, f) -> {
+                if (f != null) {
+                    result.completeExceptionally(unwrap(f));
+                } else {
+                    result.complete(v);
+                }
+            });
+        });
+        result.whenComplete((v, f) -> {
+            if (f instanceof CancellationException) {
+                current.get().cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Like exceptionallyCompose (cancellation excluded): a failure of first is replaced by the future
+     * returned from fallback; cancellation of the result is forwarded to whichever stage is running.
+     */
+    public static <T> CompletableFuture<T> recover(CompletableFuture<T> first,
+                                                   Function<Throwable, ? extends CompletableFuture<T>> fallback) {
+        Objects.requireNonNull(first, "first");
+        Objects.requireNonNull(fallback, "fallback");
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>(first);
+        first.whenComplete((value, failure) -> {
+            if (failure == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(failure);
+            if (cause instanceof CancellationException) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            CompletableFuture<T> second;
+            try {
+                second = fallback.apply(cause);
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            current.set(second);
+            if (result.isCancelled()) {
+                second.cancel(true);
+            }
+            second.whenComplete((v, f) -> {
+                if (f != null) {
+                    result.completeExceptionally(unwrap(f));
+                } else {
+                    result.complete(v);
+                }
+            });
+        });
+        result.whenComplete((v, f) -> {
+            if (f instanceof CancellationException) {
+                current.get().cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Like thenApply, but cancellation of the result is forwarded to the source.
+     */
+    public static <A, B> CompletableFuture<B> map(CompletableFuture<A> first, Function<? super A, ? extends B> fn) {
+        Objects.requireNonNull(fn, "fn");
+        return compose(first, value -> CompletableFuture.completedFuture(fn.apply(value)));
+    }
+
+    /**
+     * Replace the failure of source (cancellation excluded); cancellation of the result is forwarded to source.
+     */
+    public static <T> CompletableFuture<T> mapFailure(CompletableFuture<T> source,
+                                                      Function<Throwable, ? extends Throwable> fn) {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(fn, "fn");
+        CompletableFuture<T> result = new CompletableFuture<>();
+        source.whenComplete((value, failure) -> {
+            if (failure == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(failure);
+            result.completeExceptionally(cause instanceof CancellationException ? cause : fn.apply(cause));
+        });
+        result.whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Complete with all results in order, or fail with the first failure; on failure or cancellation
+     * the remaining futures are cancelled.
+     */
+    public static <T> CompletableFuture<List<T>> allOrCancel(List<CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> all = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                all.complete(futures.stream().map(CompletableFuture::join).toList());
+            }
+        });
+        for (CompletableFuture<T> future : futures) {
+            future.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    all.completeExceptionally(unwrap(failure));
+                }
+            });
+        }
+        all.whenComplete((value, failure) -> {
+            if (failure != null) {
+                futures.forEach(f -> f.cancel(true));
+            }
+        });
+        return all;
+    }
+}
@@ -0,0 +1,118 @@
+package riid.concurrent;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key into one execution.
+ * The first caller runs the loader, everyone who arrives while it is in flight waits for the same outcome.
+ * Keys are forgotten as soon as the call completes, so nothing is cached here.
+ * Each caller gets its own future: cancelling it detaches that caller only, the shared call is cancelled
+ * once every caller has cancelled.
+ */
+public final class SingleFlight<K, V> {
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> loader) {
+        Objects.requireNonNull(loader, "loader");
+        return Futures.join(executeAsync(key, () -> CompletableFuture.completedFuture(loader.get())));
+    }
+
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(loader, "loader");
+        boolean[] leader = new boolean[1];
+        Flight<V> flight = inFlight.compute(key, (k, existing) -> {
+            if (existing != null && existing.join()) {
+                return existing;
+            }
+            Flight<V> created = new Flight<>();
+            created.join();
+            leader[0] = true;
+            return created;
+        });
+        if (leader[0]) {
+            CompletableFuture<V> source;
+            try {
+                source = loader.get();
+            } catch (RuntimeException | Error e) {
+                source = CompletableFuture.failedFuture(e);
+            }
+            flight.start(source);
+            source.whenComplete((value, failure) -> {
+                inFlight.remove(key, flight);
+                if (failure != null) {
+                    flight.shared.completeExceptionally(Futures.unwrap(failure));
+                } else {
+                    flight.shared.complete(value);
+                }
+            });
+        }
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        flight.shared.whenComplete((value, failure) -> {
+            if (failure != null) {
+                mine.completeExceptionally(Futures.unwrap(failure));
+            } else {
+                mine.complete(value);
+            }
+        });
+        mine.whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException && flight.leave()) {
+                inFlight.remove(key, flight);
+            }
+        });
+        return mine;
+    }
+
+    /**
+     * Number of keys currently being loaded.
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> source;
+        private int callers;
+        private boolean abandoned;
+
+        /**
+         * @return false when the call already finished or was abandoned; the caller then starts a new one
+         */
+        synchronized boolean join() {
+            if (shared.isDone() || abandoned) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        synchronized void start(CompletableFuture<V> loaded) {
+            this.source = loaded;
+            if (abandoned) {
+                loaded.cancel(true);
+            }
+        }
+
+        /**
+         * @return true when the last caller left and the shared call was cancelled
+         */
+        synchronized boolean leave() {
+            callers--;
+            if (callers > 0 || shared.isDone()) {
+                return false;
+            }
+            abandoned = true;
+            if (source != null) {
+                source.cancel(true);
+            }
+            shared.cancel(true);
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package riid.config;
 
+import riid.client.core.config.AuthConfig;
 import riid.client.core.config.ClientConfig;
 import riid.client.http.HttpClientConfig;
 import riid.dispatcher.DispatcherConfig;
@@ -27,8 +28,19 @@ public final class ConfigValidator {
             throw new ConfigValidationException("At least one registry must be configured");
         }
         validateHttp(client.http());
+        validateAuth(client.auth());
         if (dispatcher.maxConcurrentRegistry() <= 0) {
-            throw new ConfigValidationException("maxConcurrentRegistry must be positive");
+            throw new ConfigValidationException("dispatcher.maxConcurrentRegistry must be positive");
+        }
+        if (dispatcher.workerThreads() <= 0) {
+            throw new ConfigValidationException("dispatcher.workerThreads must be positive");
+        }
+        if (dispatcher.registryLimitMin() <= 0 || dispatcher.registryLimitMin() > dispatcher.registryLimitMax()) {
+            throw new ConfigValidationException("dispatcher.registryLimitMin must be positive and not exceed "
+                    + "dispatcher.registryLimitMax");
+        }
+        if (dispatcher.p2pGracePeriod() != null && dispatcher.p2pGracePeriod().isNegative()) {
+            throw new ConfigValidationException("dispatcher.p2pGracePeriod must not be negative");
         }
     }
 
@@ -50,6 +62,13 @@ public final class ConfigValidator {
         }
     }
 
+    private static void validateAuth(AuthConfig auth) {
+        double ratio = auth.refreshAheadRatio();
+        if (!(ratio > 0 && ratio <= 1)) {
+            throw new ConfigValidationException("client.auth.refreshAheadRatio must be in (0, 1]");
+        }
+    }
+
     private static void checkDuration(Duration value, String field) {
         if (value == null || value.isZero() || value.isNegative()) {
             throw new ConfigValidationException(field + " must be positive");
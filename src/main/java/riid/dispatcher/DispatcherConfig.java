@@ -2,19 +2,90 @@ package riid.dispatcher;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Duration;
+
 /**
  * Configuration for RequestDispatcher.
+ *
+ * @param maxConcurrentRegistry initial number of blobs downloaded from one registry host at once
+ * @param workerThreads         size of the worker pool that fetches config and layers of an image in parallel
+ * @param virtualThreads        run per-layer work on a virtual thread per task instead (workerThreads is ignored)
+ * @param registryLimitMin      lower bound for the adaptive per-host download limit
+ * @param registryLimitMax      upper bound for the adaptive per-host download limit
+ * @param p2pGracePeriod        race P2P against the registry: the registry download starts once P2P has not
+ *                              finished within this period; null keeps the sequential P2P-then-registry order
  */
-public record DispatcherConfig(@JsonProperty("maxConcurrentRegistry") int maxConcurrentRegistry) {
+public record DispatcherConfig(@JsonProperty("maxConcurrentRegistry") int maxConcurrentRegistry,
+                               @JsonProperty("workerThreads") int workerThreads,
+                               @JsonProperty("virtualThreads") boolean virtualThreads,
+                               @JsonProperty("registryLimitMin") int registryLimitMin,
+                               @JsonProperty("registryLimitMax") int registryLimitMax,
+                               @JsonProperty("p2pGracePeriod") Duration p2pGracePeriod) {
     private static final int DEFAULT_MAX_CONCURRENT = 4;
+    private static final int DEFAULT_WORKER_THREADS = 8;
+    private static final int DEFAULT_LIMIT_MIN = 1;
+    private static final int DEFAULT_LIMIT_MAX = 32;
 
     public DispatcherConfig() {
         this(DEFAULT_MAX_CONCURRENT);
     }
 
     public DispatcherConfig(int maxConcurrentRegistry) {
+        this(maxConcurrentRegistry, DEFAULT_WORKER_THREADS, false, 0, 0, null);
+    }
+
+    public DispatcherConfig(int maxConcurrentRegistry,
+                            int workerThreads,
+                            boolean virtualThreads,
+                            int registryLimitMin,
+                            int registryLimitMax,
+                            Duration p2pGracePeriod) {
         this.maxConcurrentRegistry = maxConcurrentRegistry > 0 ? maxConcurrentRegistry : DEFAULT_MAX_CONCURRENT;
+        this.workerThreads = workerThreads > 0 ? workerThreads : DEFAULT_WORKER_THREADS;
+        this.virtualThreads = virtualThreads;
+        this.registryLimitMin = registryLimitMin > 0 ? registryLimitMin : DEFAULT_LIMIT_MIN;
+        this.registryLimitMax = registryLimitMax > 0
+                ? registryLimitMax
+                : Math.max(DEFAULT_LIMIT_MAX, this.maxConcurrentRegistry);
+        this.p2pGracePeriod = p2pGracePeriod;
     }
-}
 
+    /**
+     * Same settings with another worker pool size.
+     */
+    public DispatcherConfig withWorkerThreads(int threads) {
+        return new DispatcherConfig(maxConcurrentRegistry, threads, virtualThreads,
+                registryLimitMin, registryLimitMax, p2pGracePeriod);
+    }
+
+    /**
+     * Same settings with per-layer work on virtual threads (or back on the worker pool).
+     */
+    public DispatcherConfig withVirtualThreads(boolean enabled) {
+        return new DispatcherConfig(maxConcurrentRegistry, workerThreads, enabled,
+                registryLimitMin, registryLimitMax, p2pGracePeriod);
+    }
 
+    /**
+     * Same settings with other bounds for the adaptive per-host download limit.
+     */
+    public DispatcherConfig withRegistryLimits(int min, int max) {
+        return new DispatcherConfig(maxConcurrentRegistry, workerThreads, virtualThreads, min, max, p2pGracePeriod);
+    }
+
+    /**
+     * Same settings with the registry limit pinned to maxConcurrentRegistry (no adaptation).
+     */
+    public DispatcherConfig withFixedRegistryLimit() {
+        return new DispatcherConfig(maxConcurrentRegistry, workerThreads, virtualThreads,
+                maxConcurrentRegistry, maxConcurrentRegistry, p2pGracePeriod);
+    }
+
+    /**
+     * Same settings with P2P raced against the registry after the given grace period.
+     */
+    public DispatcherConfig withP2pGracePeriod(Duration gracePeriod) {
+        return new DispatcherConfig(maxConcurrentRegistry, workerThreads, virtualThreads,
+                registryLimitMin, registryLimitMax, gracePeriod);
+    }
+}
@@ -0,0 +1,17 @@
+package riid.dispatcher;
+
+/**
+ * Scheduling class of an image pull; registry slots go to the most urgent class first.
+ */
+public enum FetchPriority {
+    /** a pod cannot start until the image is present */
+    POD_START_CRITICAL,
+    /** user-initiated pull */
+    INTERACTIVE,
+    /** prefetch / cache warm-up */
+    BACKGROUND;
+
+    static FetchPriority mostUrgent(FetchPriority a, FetchPriority b) {
+        return a.ordinal() <= b.ordinal() ? a : b;
+    }
+}
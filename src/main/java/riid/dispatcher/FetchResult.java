@@ -1,9 +1,18 @@
 package riid.dispatcher;
 
+import java.util.List;
+
 /**
  * Result of image fetch orchestration.
+ *
+ * @param digest    manifest digest
+ * @param mediaType manifest media type
+ * @param config    image config blob
+ * @param layers    image layers in manifest order
  */
-public record FetchResult(String digest, String mediaType, String path) {
+public record FetchResult(String digest, String mediaType, LayerResult config, List<LayerResult> layers) {
+    public FetchResult {
+        layers = layers == null ? List.of() : List.copyOf(layers);
+    }
 }
 
-
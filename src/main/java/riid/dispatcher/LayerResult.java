@@ -0,0 +1,8 @@
+package riid.dispatcher;
+
+/**
+ * Local location of a single image blob (config or layer).
+ */
+public record LayerResult(String digest, String mediaType, String path) {
+}
+
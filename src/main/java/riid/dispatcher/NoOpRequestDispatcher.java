@@ -1,6 +1,7 @@
 package riid.dispatcher;
 
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * No-op dispatcher placeholder.
@@ -11,6 +12,17 @@ public final class NoOpRequestDispatcher implements RequestDispatcher {
         Objects.requireNonNull(ref);
         throw new UnsupportedOperationException("Dispatcher not implemented");
     }
+
+    @Override
+    public CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref) {
+        return fetchImageAsync(ref, FetchPriority.INTERACTIVE);
+    }
+
+    @Override
+    public CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref, FetchPriority priority) {
+        Objects.requireNonNull(ref);
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("Dispatcher not implemented"));
+    }
 }
 
 
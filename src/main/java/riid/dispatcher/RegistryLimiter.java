@@ -0,0 +1,206 @@
+package riid.dispatcher;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking adaptive concurrency limit for downloads from one registry host (AIMD).
+ * Waiters get a ticket (a future) instead of parking a thread. Free slots go to the most urgent
+ * {@link FetchPriority} first; within a class, repositories take turns, so one repository with many queued
+ * layers cannot starve another. Cancelled tickets are skipped.
+ * The limit grows by one per window of successful downloads while the registry is busy and latency stays
+ * near its baseline, and is cut multiplicatively on 429/503 or when latency (normalised per MiB) rises.
+ * At most one cut happens per round trip: samples started before the last cut are ignored.
+ */
+final class RegistryLimiter {
+    /**
+     * How a download that held a permit ended.
+     */
+    enum Outcome {
+        SUCCESS,
+        THROTTLED,
+        /** failed for another reason or cancelled; carries no load signal */
+        IGNORED
+    }
+
+    private static final double BACKOFF_RATIO = 0.7;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_WEIGHT = 0.1;
+    private static final double MIB = 1024.0 * 1024.0;
+    private static final long LATENCY_NOISE_NANOS = 5_000_000; // ignore jitter below 5ms
+
+    private final int minLimit;
+    private final int maxLimit;
+    // per class: repository -> its queued tickets; iteration order is the round-robin order
+    private final Map<FetchPriority, LinkedHashMap<String, Deque<Ticket>>> waiters =
+            new EnumMap<>(FetchPriority.class);
+    private double limit;
+    private int inFlight;
+    private double baselineNanosPerMib;
+    private boolean decreased;
+    private long lastDecrease;
+
+    RegistryLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limit bounds: " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+        for (FetchPriority priority : FetchPriority.values()) {
+            waiters.put(priority, new LinkedHashMap<>());
+        }
+    }
+
+    synchronized Ticket acquire(FetchPriority priority, String repository) {
+        Ticket ticket = new Ticket(priority, repository);
+        if (inFlight < currentLimit() && !hasWaiters()) {
+            inFlight++;
+            ticket.complete(null);
+        } else {
+            enqueue(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Move a still queued ticket to a more urgent class (e.g. a critical pull now needs the same layer).
+     */
+    synchronized void promote(Ticket ticket, FetchPriority priority) {
+        if (ticket.isDone() || priority.ordinal() >= ticket.priority.ordinal()) {
+            return;
+        }
+        var byRepository = waiters.get(ticket.priority);
+        Deque<Ticket> queue = byRepository.get(ticket.repository);
+        if (queue == null || !queue.remove(ticket)) {
+            return;
+        }
+        if (queue.isEmpty()) {
+            byRepository.remove(ticket.repository);
+        }
+        ticket.priority = priority;
+        enqueue(ticket);
+    }
+
+    /**
+     * Return a permit and feed the result of the download back into the limit.
+     *
+     * @param startNanos System.nanoTime() when the permit was granted
+     * @param bytes      size of the downloaded blob
+     */
+    void release(Outcome outcome, long startNanos, long bytes) {
+        synchronized (this) {
+            inFlight--;
+            onSample(outcome, startNanos, System.nanoTime() - startNanos, bytes);
+        }
+        grantWaiters();
+    }
+
+    synchronized int currentLimit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlightCount() {
+        return inFlight;
+    }
+
+    private void onSample(Outcome outcome, long startNanos, long latencyNanos, long bytes) {
+        switch (outcome) {
+            case THROTTLED -> decrease(startNanos);
+            case SUCCESS -> {
+                double perMib = latencyNanos / Math.max(1.0, bytes / MIB);
+                if (baselineNanosPerMib > 0
+                        && perMib > baselineNanosPerMib * LATENCY_TOLERANCE
+                        && perMib - baselineNanosPerMib > LATENCY_NOISE_NANOS) {
+                    decrease(startNanos);
+                    return;
+                }
+                baselineNanosPerMib = baselineNanosPerMib == 0
+                        ? perMib
+                        : baselineNanosPerMib + BASELINE_WEIGHT * (perMib - baselineNanosPerMib);
+                // only grow while the current limit is actually used
+                if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private void decrease(long startNanos) {
+        if (decreased && startNanos - lastDecrease < 0) {
+            return; // started under the old limit, already accounted for
+        }
+        decreased = true;
+        lastDecrease = System.nanoTime();
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+    }
+
+    private void grantWaiters() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                if (inFlight >= currentLimit()) {
+                    return;
+                }
+                do {
+                    next = pollNext();
+                    if (next == null) {
+                        return;
+                    }
+                } while (next.isDone());
+                inFlight++;
+            }
+            // complete outside the lock: the waiter's continuation starts the next download right here
+            if (!next.complete(null)) {
+                synchronized (this) {
+                    inFlight--; // cancelled in the meantime
+                }
+            }
+        }
+    }
+
+    private void enqueue(Ticket ticket) {
+        waiters.get(ticket.priority)
+                .computeIfAbsent(ticket.repository, repository -> new ArrayDeque<>())
+                .addLast(ticket);
+    }
+
+    private boolean hasWaiters() {
+        return waiters.values().stream().anyMatch(byRepository -> !byRepository.isEmpty());
+    }
+
+    private Ticket pollNext() {
+        for (var byRepository : waiters.values()) { // EnumMap iterates in priority order
+            Iterator<Map.Entry<String, Deque<Ticket>>> it = byRepository.entrySet().iterator();
+            if (it.hasNext()) {
+                var turn = it.next();
+                it.remove();
+                Ticket ticket = turn.getValue().pollFirst();
+                if (!turn.getValue().isEmpty()) {
+                    byRepository.put(turn.getKey(), turn.getValue()); // back of the rotation
+                }
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pending or granted registry slot.
+     */
+    static final class Ticket extends CompletableFuture<Void> {
+        private final String repository;
+        private FetchPriority priority; // guarded by the limiter
+
+        private Ticket(FetchPriority priority, String repository) {
+            this.priority = priority;
+            this.repository = repository;
+        }
+    }
+}
@@ -1,10 +1,28 @@
 package riid.dispatcher;
 
+import riid.concurrent.Futures;
+
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Dispatcher decides источник (cache/P2P/registry) и вызывает соответствующие адаптеры.
  */
 public interface RequestDispatcher {
 
     FetchResult fetchImage(ImageRef ref);
+
+    /**
+     * Non-blocking {@link #fetchImage}; cancelling the future cancels the outstanding blob fetches.
+     */
+    CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref);
+
+    /**
+     * Same as {@link #fetchImageAsync(ImageRef)}, scheduling registry downloads in the given class.
+     */
+    CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref, FetchPriority priority);
+
+    default FetchResult fetchImage(ImageRef ref, FetchPriority priority) {
+        return Futures.join(fetchImageAsync(ref, priority));
+    }
 }
 
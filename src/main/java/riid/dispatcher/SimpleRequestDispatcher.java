@@ -4,33 +4,65 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import riid.cache.CacheAdapter;
+import riid.cache.CacheEntry;
+import riid.cache.CacheStaging;
 import riid.cache.FilesystemCachePayload;
 import riid.cache.ValidationException;
 import riid.client.api.BlobRequest;
 import riid.client.api.BlobResult;
-import riid.client.api.ManifestResult;
 import riid.client.api.RegistryClient;
+import riid.client.core.error.ClientError;
+import riid.client.core.error.ClientException;
+import riid.client.core.model.manifest.Descriptor;
+import riid.concurrent.Futures;
 import riid.p2p.P2PExecutor;
 import riid.cache.CacheMediaType;
 import riid.cache.ImageDigest;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Semaphore;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Simple dispatcher: cache -> P2P -> registry (registry concurrency limit is configurable).
+ * Simple dispatcher: cache -> P2P -> registry (registry concurrency adapts per host, see RegistryLimiter).
+ * The host is the client's {@link riid.client.api.RegistryClient#registryHost()}: a multi-mirror client reports
+ * all its mirrors as one host, so they share one limit.
+ * With a P2P grace period configured, P2P and the registry are raced instead of tried one after another.
+ * Config blob and all layers of an image are fetched in parallel; cache/P2P lookups run on a bounded worker pool,
+ * registry downloads are non-blocking and wait for a registry slot without holding a thread.
+ * Concurrent requests for the same digest (within one image or across images) share a single fetch, which
+ * carries the most urgent priority of its callers and its queued registry ticket (see LayerFlight).
  */
 @SuppressFBWarnings({"EI_EXPOSE_REP2"})
-public class SimpleRequestDispatcher implements RequestDispatcher {
+public class SimpleRequestDispatcher implements RequestDispatcher, AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleRequestDispatcher.class);
+    private static final Set<Integer> THROTTLE_STATUSES = Set.of(429, 503);
 
     private final RegistryClient client;
     private final CacheAdapter cache;
     private final P2PExecutor p2p;
-    private final Optional<Semaphore> registryLimiter; // limits concurrent downloads from registry
+    private final DispatcherConfig config;
+    private final Map<String, RegistryLimiter> limiters = new ConcurrentHashMap<>(); // per registry host
+    private final Map<ImageDigest, LayerFlight> layerFlights = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
 
     public SimpleRequestDispatcher(RegistryClient client, CacheAdapter cache, P2PExecutor p2p) {
         this(client, cache, p2p, new DispatcherConfig());
@@ -43,19 +75,103 @@ public class SimpleRequestDispatcher implements RequestDispatcher {
         this.client = Objects.requireNonNull(client);
         this.cache = cache;
         this.p2p = p2p;
-        int maxConc = config != null ? config.maxConcurrentRegistry() : 0;
-        this.registryLimiter = maxConc > 0 ? Optional.of(new Semaphore(maxConc)) : Optional.empty();
+        DispatcherConfig effective = config != null ? config : new DispatcherConfig();
+        this.config = effective;
+        this.workers = effective.virtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("riid-dispatcher-vt-", 1).factory())
+                : Executors.newFixedThreadPool(effective.workerThreads(), workerThreadFactory());
     }
 
     @Override
     public FetchResult fetchImage(ImageRef ref) {
+        return Futures.join(fetchImageAsync(ref));
+    }
+
+    @Override
+    public CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref) {
+        return fetchImageAsync(ref, FetchPriority.INTERACTIVE);
+    }
+
+    @Override
+    public CompletableFuture<FetchResult> fetchImageAsync(ImageRef ref, FetchPriority priority) {
+        Objects.requireNonNull(priority, "priority");
         // 1) Manifest from registry
         String reference = ref.digest() != null && !ref.digest().isBlank() ? ref.digest() : ref.tag();
-        ManifestResult manifest = client.fetchManifest(ref.repository(), reference);
+        return Futures.compose(client.fetchManifestAsync(ref.repository(), reference), manifest -> {
+            // 2) Config and every layer in parallel: cache -> P2P -> registry
+            List<Descriptor> blobs = new ArrayList<>();
+            blobs.add(manifest.manifest().config());
+            blobs.addAll(manifest.manifest().layers());
+            List<CompletableFuture<LayerResult>> futures = blobs.stream()
+                    .map(blob -> fetchBlob(ref.repository(), blob, priority))
+                    .toList();
+            return Futures.map(Futures.allOrCancel(futures), results -> new FetchResult(
+                    manifest.digest(), manifest.mediaType(), results.getFirst(), results.subList(1, results.size())));
+        });
+    }
 
-        // 2) Try cache for each layer
-        var layer = manifest.manifest().layers().getFirst();
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private CompletableFuture<LayerResult> fetchBlob(String repository, Descriptor layer, FetchPriority priority) {
         var digest = ImageDigest.parse(layer.digest());
+        boolean[] leader = new boolean[1];
+        LayerFlight flight = layerFlights.compute(digest, (k, existing) -> {
+            if (existing != null && existing.join()) {
+                return existing;
+            }
+            leader[0] = true;
+            return new LayerFlight(priority);
+        });
+        if (leader[0]) {
+            CompletableFuture<LayerResult> source;
+            try {
+                source = fetchLayer(repository, layer, digest, flight);
+            } catch (RuntimeException | Error e) {
+                source = CompletableFuture.failedFuture(e);
+            }
+            flight.start(source);
+            flight.shared.whenComplete((r, failure) -> layerFlights.remove(digest, flight));
+        } else {
+            // a shared fetch runs at the most urgent priority of its callers, including ones that join while it waits
+            flight.raise(priority);
+        }
+        CompletableFuture<LayerResult> mine = new CompletableFuture<>();
+        flight.shared.whenComplete((value, failure) -> {
+            if (failure != null) {
+                mine.completeExceptionally(Futures.unwrap(failure));
+            } else {
+                mine.complete(value);
+            }
+        });
+        mine.whenComplete((value, failure) -> {
+            if (failure instanceof CancellationException) {
+                flight.leave();
+            }
+        });
+        return mine;
+    }
+
+    private CompletableFuture<LayerResult> fetchLayer(String repository,
+                                                      Descriptor layer,
+                                                      ImageDigest digest,
+                                                      LayerFlight flight) {
+        // Cache and P2P lookups may block, so they run on the worker pool; the download itself holds no thread
+        boolean race = p2p != null && config.p2pGracePeriod() != null;
+        var local = CompletableFuture.supplyAsync(() -> {
+            Optional<LayerResult> cached = fetchCached(layer, digest);
+            return race || cached.isPresent() ? cached : fetchFromPeers(layer, digest);
+        }, workers);
+        return Futures.compose(local, hit -> hit
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> race
+                        ? new PeerRace(repository, layer, digest, flight).start()
+                        : fetchFromRegistry(repository, layer, digest, flight)));
+    }
+
+    private Optional<LayerResult> fetchCached(Descriptor layer, ImageDigest digest) {
         String cachedPath = null;
         if (cache != null && cache.has(digest)) {
             cachedPath = cache.get(digest)
@@ -65,60 +181,161 @@ public class SimpleRequestDispatcher implements RequestDispatcher {
         }
         if (cachedPath != null) {
             LOGGER.info("cache hit for layer {}", layer.digest());
-            return new FetchResult(layer.digest(), layer.mediaType(), cachedPath);
+            return Optional.of(new LayerResult(layer.digest(), layer.mediaType(), cachedPath));
         }
+        return Optional.empty();
+    }
 
-        // 3) Try P2P (if wired)
-        if (p2p != null) {
+    private Optional<LayerResult> fetchFromPeers(Descriptor layer, ImageDigest digest) {
+        if (p2p == null) {
+            return Optional.empty();
+        }
+        try {
+            var p2pPath = p2p.fetch(digest, layer.size(), CacheMediaType.from(layer.mediaType()));
+            if (p2pPath.isPresent()) {
+                LOGGER.info("p2p hit for layer {}", layer.digest());
+                return Optional.of(new LayerResult(layer.digest(), layer.mediaType(), p2pPath.get().toString()));
+            }
+        } catch (Exception ex) {
+            LOGGER.warn("P2P fetch failed for layer {}: {}", layer.digest(), ex.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    private CompletableFuture<LayerResult> fetchFromRegistry(String repository,
+                                                             Descriptor layer,
+                                                             ImageDigest digest,
+                                                             LayerFlight flight) {
+        // Registry download (with per-host adaptive limit); the permit is held until the download itself completes
+        RegistryLimiter limiter = limiterFor();
+        RegistryLimiter.Ticket ticket = limiter.acquire(flight.currentPriority(), repository);
+        if (!ticket.isDone()) {
+            flight.queued(ticket);
+        }
+        return Futures.compose(ticket, ignored -> {
+            long started = System.nanoTime();
+            CompletableFuture<BlobResult> download;
+            // write straight into the cache's staging file when possible: one disk write, committed in place
+            CacheStaging staging = stage(digest);
+            File target;
             try {
-                var p2pPath = p2p.fetch(digest, layer.size(), CacheMediaType.from(layer.mediaType()));
-                if (p2pPath.isPresent()) {
-                    LOGGER.info("p2p hit for layer {}", layer.digest());
-                    return new FetchResult(layer.digest(), layer.mediaType(), p2pPath.get().toString());
-                }
-            } catch (Exception ex) {
-                LOGGER.warn("P2P fetch failed for layer {}: {}", layer.digest(), ex.getMessage());
+                target = staging != null ? staging.path().toFile() : createTemp();
+                download = client.fetchBlobAsync(
+                        new BlobRequest(repository, layer.digest(), layer.size(), layer.mediaType()),
+                        target);
+            } catch (RuntimeException e) {
+                limiter.release(RegistryLimiter.Outcome.IGNORED, started, 0);
+                closeQuietly(staging);
+                throw e;
             }
+            download.whenComplete((blob, failure) -> {
+                limiter.release(outcome(failure), started, blob != null ? blob.size() : layer.size());
+                if (failure != null && staging == null) {
+                    deleteQuietly(target.toPath()); // failed or cancelled: drop the partial file
+                }
+            });
+            var published = Futures.compose(download,
+                    blob -> CompletableFuture.supplyAsync(() -> publish(blob, staging), workers));
+            // an uncommitted staging file (failure, cancellation, blob stored elsewhere) is deleted on close
+            published.whenComplete((result, failure) -> closeQuietly(staging));
+            return published;
+        });
+    }
+
+    private RegistryLimiter limiterFor() {
+        return limiters.computeIfAbsent(client.registryHost(), host -> newLimiter());
+    }
+
+    private RegistryLimiter newLimiter() {
+        return new RegistryLimiter(
+                config.maxConcurrentRegistry(), config.registryLimitMin(), config.registryLimitMax());
+    }
+
+    private static RegistryLimiter.Outcome outcome(Throwable failure) {
+        if (failure == null) {
+            return RegistryLimiter.Outcome.SUCCESS;
         }
+        if (Futures.unwrap(failure) instanceof ClientException ce
+                && ce.error() instanceof ClientError.Http http
+                && http.status() != null
+                && THROTTLE_STATUSES.contains(http.status())) {
+            return RegistryLimiter.Outcome.THROTTLED;
+        }
+        return RegistryLimiter.Outcome.IGNORED;
+    }
 
-        // 4) Registry download (with limiter if set)
-        acquireRegistry();
-        try {
-            File tmp = createTemp();
-            BlobResult blob = client.fetchBlob(
-                    new BlobRequest(ref.repository(), layer.digest(), layer.size(), layer.mediaType()),
-                    tmp);
-            LOGGER.info("Downloaded layer {} from registry", layer.digest());
-
-            // 5) Publish to P2P/cache
-            if (cache != null) {
-                try {
-                    cache.put(ImageDigest.parse(blob.digest()),
-                            FilesystemCachePayload.of(tmp.toPath(), tmp.length()),
-                            CacheMediaType.from(blob.mediaType()));
-                } catch (ValidationException ve) {
-                    LOGGER.warn("Validation error for cache put ({}): {}", blob.mediaType(), ve.getMessage());
-                } catch (IllegalArgumentException iae) {
-                    LOGGER.warn("Unsupported media type for cache put ({}): {}", blob.mediaType(), iae.getMessage());
-                } catch (Exception ex) {
-                    LOGGER.warn("Failed to put layer {} to cache: {}", blob.digest(), ex.getMessage());
+    private LayerResult publish(BlobResult blob, CacheStaging staging) {
+        LOGGER.info("Downloaded layer {} from registry", blob.digest());
+
+        // Publish to P2P/cache
+        String path = blob.path();
+        if (cache != null) {
+            try {
+                var digest = ImageDigest.parse(blob.digest());
+                var mediaType = CacheMediaType.from(blob.mediaType());
+                CacheEntry entry;
+                if (staging != null && staging.path().toAbsolutePath().equals(Path.of(blob.path()))) {
+                    entry = staging.commit(blob.size(), mediaType); // the client verified the digest already
+                } else if (cache.has(digest)) {
+                    entry = cache.get(digest).orElse(null);
+                } else {
+                    entry = cache.put(digest, FilesystemCachePayload.of(Path.of(blob.path()), blob.size()), mediaType);
                 }
-            }
-            if (p2p != null) {
-                try {
-                    p2p.publish(
-                            ImageDigest.parse(blob.digest()),
-                            Path.of(blob.path()),
-                            blob.size(),
-                            CacheMediaType.from(blob.mediaType()));
-                } catch (Exception ex) {
-                    LOGGER.warn("P2P publish failed for {}: {}", blob.digest(), ex.getMessage());
+                if (entry != null) {
+                    path = cache.resolve(entry.key()).map(Path::toString).orElse(path);
                 }
+            } catch (ValidationException ve) {
+                LOGGER.warn("Validation error for cache put ({}): {}", blob.mediaType(), ve.getMessage());
+            } catch (IllegalArgumentException iae) {
+                LOGGER.warn("Unsupported media type for cache put ({}): {}", blob.mediaType(), iae.getMessage());
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to put layer {} to cache: {}", blob.digest(), ex.getMessage());
+            }
+        }
+        if (p2p != null) {
+            try {
+                // peers serve the committed cache file, not another copy
+                p2p.publish(
+                        ImageDigest.parse(blob.digest()),
+                        Path.of(path),
+                        blob.size(),
+                        CacheMediaType.from(blob.mediaType()));
+            } catch (Exception ex) {
+                LOGGER.warn("P2P publish failed for {}: {}", blob.digest(), ex.getMessage());
             }
+        }
+
+        return new LayerResult(blob.digest(), blob.mediaType(), path);
+    }
+
+    private CacheStaging stage(ImageDigest digest) {
+        if (cache == null) {
+            return null;
+        }
+        try {
+            return cache.stage(digest).orElse(null);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot stage layer {} in cache: {}", digest, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void closeQuietly(CacheStaging staging) {
+        if (staging == null) {
+            return;
+        }
+        try {
+            staging.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to discard staging file {}: {}", staging.path(), e.getMessage());
+        }
+    }
 
-            return new FetchResult(blob.digest(), blob.mediaType(), blob.path());
-        } finally {
-            releaseRegistry();
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}: {}", path, e.getMessage());
         }
     }
 
@@ -132,19 +349,216 @@ public class SimpleRequestDispatcher implements RequestDispatcher {
         }
     }
 
-    private void acquireRegistry() {
-        registryLimiter.ifPresent(limiter -> {
+    private static ThreadFactory workerThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "riid-dispatcher-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * P2P raced against the registry. P2P starts first; the registry download starts once the grace period
+     * passes or P2P misses, whichever is earlier. The first result wins, the other side is cancelled
+     * (the P2P thread is interrupted) and a partial registry download is deleted. A late P2P hit is left alone:
+     * the path belongs to the P2P layer (see {@link P2PExecutor#fetch}).
+     */
+    private final class PeerRace {
+        private final CompletableFuture<LayerResult> result = new CompletableFuture<>();
+        private final AtomicBoolean registryStarted = new AtomicBoolean();
+        private final String repository;
+        private final Descriptor layer;
+        private final ImageDigest digest;
+        private final LayerFlight flight;
+        private Future<?> peer; // guarded by this
+        private CompletableFuture<LayerResult> registry; // guarded by this
+        private boolean peerMissed; // guarded by this
+        private Throwable registryFailure; // guarded by this
+
+        PeerRace(String repository, Descriptor layer, ImageDigest digest, LayerFlight flight) {
+            this.repository = repository;
+            this.layer = layer;
+            this.digest = digest;
+            this.flight = flight;
+        }
+
+        CompletableFuture<LayerResult> start() {
+            result.whenComplete((value, failure) -> cancelLoser());
+            Future<?> task = workers.submit(this::runPeer);
+            synchronized (this) {
+                peer = task;
+            }
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+            // the fallback hops onto the workers itself: once close() shut them down the race fails instead of hanging
+            CompletableFuture.delayedExecutor(config.p2pGracePeriod().toNanos(), TimeUnit.NANOSECONDS)
+                    .execute(this::startRegistryOnWorkers);
+            return result;
+        }
+
+        private void startRegistryOnWorkers() {
             try {
-                limiter.acquire();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Interrupted while waiting for registry slot", e);
+                workers.execute(this::startRegistry);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
             }
-        });
+        }
+
+        private void runPeer() {
+            Optional<LayerResult> hit = fetchFromPeers(layer, digest);
+            if (hit.isPresent()) {
+                result.complete(hit.get()); // a no-op if the registry won (or the fetch was cancelled)
+                return;
+            }
+            Throwable failure;
+            synchronized (this) {
+                peerMissed = true;
+                failure = registryFailure;
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                startRegistry();
+            }
+        }
+
+        private void startRegistry() {
+            if (result.isDone() || !registryStarted.compareAndSet(false, true)) {
+                return;
+            }
+            CompletableFuture<LayerResult> download = fetchFromRegistry(repository, layer, digest, flight);
+            synchronized (this) {
+                registry = download;
+            }
+            if (result.isDone()) {
+                download.cancel(true);
+            }
+            download.whenComplete((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                    return;
+                }
+                Throwable cause = Futures.unwrap(failure);
+                if (cause instanceof CancellationException) {
+                    return;
+                }
+                boolean peerDone;
+                synchronized (this) {
+                    registryFailure = cause;
+                    peerDone = peerMissed;
+                }
+                if (peerDone) {
+                    result.completeExceptionally(cause);
+                }
+            });
+        }
+
+        private void cancelLoser() {
+            Future<?> peerTask;
+            CompletableFuture<LayerResult> download;
+            synchronized (this) {
+                peerTask = peer;
+                download = registry;
+            }
+            if (peerTask != null) {
+                peerTask.cancel(true);
+            }
+            if (download != null) {
+                download.cancel(true);
+            }
+        }
     }
 
-    private void releaseRegistry() {
-        registryLimiter.ifPresent(Semaphore::release);
+    /**
+     * One shared fetch of a digest. Its priority and queued registry ticket live here rather than in maps keyed
+     * by digest, so a caller joining while the fetch finishes cannot leave state behind for the next fetch.
+     * Each caller gets its own future; the fetch is cancelled once every caller has cancelled.
+     */
+    private final class LayerFlight {
+        private final CompletableFuture<LayerResult> shared = new CompletableFuture<>();
+        private FetchPriority priority; // guarded by this
+        private RegistryLimiter.Ticket ticket; // guarded by this
+        private CompletableFuture<LayerResult> source; // guarded by this
+        private int callers = 1; // guarded by this
+        private boolean abandoned; // guarded by this
+
+        LayerFlight(FetchPriority priority) {
+            this.priority = priority;
+        }
+
+        /**
+         * @return false when the fetch already finished or was abandoned; the caller then starts a new one
+         */
+        synchronized boolean join() {
+            if (shared.isDone() || abandoned) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        synchronized FetchPriority currentPriority() {
+            return priority;
+        }
+
+        void start(CompletableFuture<LayerResult> loaded) {
+            synchronized (this) {
+                source = loaded;
+                if (abandoned) {
+                    loaded.cancel(true);
+                }
+            }
+            loaded.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    shared.completeExceptionally(Futures.unwrap(failure));
+                } else {
+                    shared.complete(value);
+                }
+            });
+        }
+
+        /**
+         * A caller joined with this priority; a ticket already waiting for a registry slot moves up with it.
+         */
+        void raise(FetchPriority joined) {
+            RegistryLimiter.Ticket waiting;
+            synchronized (this) {
+                priority = FetchPriority.mostUrgent(priority, joined);
+                waiting = ticket;
+            }
+            if (waiting != null) {
+                limiterFor().promote(waiting, joined);
+            }
+        }
+
+        /**
+         * The registry ticket is waiting; a caller may have raised the priority since it was requested.
+         */
+        void queued(RegistryLimiter.Ticket waiting) {
+            FetchPriority current;
+            synchronized (this) {
+                ticket = waiting;
+                current = priority;
+            }
+            limiterFor().promote(waiting, current);
+        }
+
+        void leave() {
+            CompletableFuture<LayerResult> loaded;
+            synchronized (this) {
+                callers--;
+                if (callers > 0 || shared.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                loaded = source;
+            }
+            if (loaded != null) {
+                loaded.cancel(true);
+            }
+            shared.cancel(true);
+        }
     }
 }
-
@@ -12,6 +12,8 @@ import java.util.Optional;
 public interface P2PExecutor {
     /**
      * Try to fetch blob from peers.
+     * The returned file stays owned by the P2P layer (it may be a peer store or a shared cache file);
+     * callers read it but never move or delete it.
      * @return path if found, empty otherwise
      */
     Optional<Path> fetch(ImageDigest digest, long size, CacheMediaType mediaType);
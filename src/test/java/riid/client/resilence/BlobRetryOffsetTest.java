@@ -1,12 +1,127 @@
 package riid.client.resilence;
 
-import org.junit.jupiter.api.Disabled;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import riid.client.api.BlobRequest;
+import riid.client.api.BlobResult;
+import riid.client.api.RegistryClientImpl;
+import riid.client.core.config.RegistryEndpoint;
+import riid.client.http.HttpClientConfig;
 
-@Disabled("Placeholder until resume functionality is implemented")
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A blob body that breaks off is continued from the received offset instead of starting over.
+ */
 class BlobRetryOffsetTest {
+    private static final String REPO = "repo";
+    private static final String OCTET = "application/octet-stream";
+    private static final String RANGE = "Range";
+    private static final int SIZE = 256 * 1024;
+
+    private final Random random = new Random(42);
+    private final byte[] data = new byte[SIZE];
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private String digest;
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        random.nextBytes(data);
+        digest = "sha256:" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void brokenBodyIsResumedFromReceivedOffset() throws Exception {
+        start(true);
+        File target = tempFile();
+        try (var client = client()) {
+            BlobResult result = client.fetchBlob(new BlobRequest(REPO, digest, (long) SIZE, OCTET), target);
+
+            assertEquals(digest, result.digest());
+            assertEquals(SIZE, result.size());
+        }
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(List.of("", "bytes=" + SIZE / 2 + "-"), ranges);
+    }
+
     @Test
-    void placeholder() {
-        // Intentional no-op; real tests will be added with resume support.
+    void resumeIsRejectedWhenRangeIsIgnored() throws Exception {
+        start(false);
+        File target = tempFile();
+        try (var client = client()) {
+            assertThrows(RuntimeException.class,
+                    () -> client.fetchBlob(new BlobRequest(REPO, digest, (long) SIZE, OCTET), target));
+        }
+        assertEquals(2, ranges.size(), "one resume attempt, answered with the whole body");
+    }
+
+    /**
+     * Serves the blob; the first GET breaks off after half of the body.
+     */
+    private void start(boolean honourRange) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/v2/", exchange -> respond(exchange, 200, new byte[0]));
+        server.createContext("/v2/" + REPO + "/blobs/" + digest, exchange -> {
+            String range = exchange.getRequestHeaders().getFirst(RANGE);
+            ranges.add(range == null ? "" : range);
+            exchange.getResponseHeaders().add("Content-Type", OCTET);
+            if (range != null && honourRange) {
+                int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (SIZE - 1) + "/" + SIZE);
+                exchange.sendResponseHeaders(206, SIZE - from);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(data, from, SIZE - from);
+                }
+                return;
+            }
+            exchange.sendResponseHeaders(200, SIZE);
+            OutputStream os = exchange.getResponseBody();
+            os.write(data, 0, SIZE / 2);
+            os.flush();
+            throw new IOException("connection dropped mid-body"); // the server closes the connection
+        });
+        server.start();
+    }
+
+    private RegistryClientImpl client() {
+        RegistryEndpoint endpoint = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        return new RegistryClientImpl(endpoint, new HttpClientConfig(), null);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = Files.createTempFile("resume-", ".bin").toFile();
+        file.deleteOnExit();
+        return file;
     }
 }
@@ -5,6 +5,7 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpFields;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import riid.cache.TokenCache;
@@ -19,14 +20,22 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AuthServiceTest {
+    private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+    private static final String REPO = "repo";
+    private static final String REPO_PULL = "repository:repo:pull";
 
     private HttpServer server;
 
@@ -40,9 +49,9 @@ class AuthServiceTest {
     @Test
     void returnsEmptyWhenPing200() throws Exception {
         setupServer(exchange -> respond(exchange, 200, Map.of(), ""));
-        RegistryEndpoint ep = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        RegistryEndpoint ep = anonymousEndpoint();
         AuthService auth = authService();
-        Optional<String> hdr = auth.getAuthHeader(ep, "repo", "scope");
+        Optional<String> hdr = auth.getAuthHeader(ep, REPO, "scope");
         assertTrue(hdr.isEmpty(), "no auth header when ping 200");
     }
 
@@ -64,13 +73,9 @@ class AuthServiceTest {
                 respond(exchange, 404, Map.of(), "");
             }
         });
-        RegistryEndpoint ep = new RegistryEndpoint(
-                "http",
-                "localhost",
-                server.getAddress().getPort(),
-                Credentials.basic("u", "p"));
+        RegistryEndpoint ep = endpoint(Credentials.basic("u", "p"));
         AuthService auth = authService();
-        Optional<String> hdr = auth.getAuthHeader(ep, "repo", "repo:pull");
+        Optional<String> hdr = auth.getAuthHeader(ep, REPO, "repo:pull");
         assertTrue(hdr.isPresent());
         assertEquals("Bearer " + token, hdr.get());
     }
@@ -78,15 +83,153 @@ class AuthServiceTest {
     @Test
     void missingChallengeThrows() throws Exception {
         setupServer(exchange -> respond(exchange, 401, Map.of(), ""));
-        RegistryEndpoint ep = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        RegistryEndpoint ep = anonymousEndpoint();
         AuthService auth = authService();
-        assertThrows(RuntimeException.class, () -> auth.getAuthHeader(ep, "repo", "scope"));
+        assertThrows(RuntimeException.class, () -> auth.getAuthHeader(ep, REPO, "scope"));
+    }
+
+    @Test
+    void newScopesReuseChallengeUntilItChanges() throws Exception {
+        AtomicInteger pings = new AtomicInteger();
+        AtomicInteger tokens = new AtomicInteger();
+        setupServer(exchange -> {
+            if (isPing(exchange)) {
+                pings.incrementAndGet();
+                exchange.getResponseHeaders().add(WWW_AUTHENTICATE, challenge());
+                respond(exchange, 401, Map.of(), "");
+            } else {
+                tokens.incrementAndGet();
+                respond(exchange, 200, Map.of(), "{\"token\":\"t\",\"expires_in\":120}");
+            }
+        });
+        RegistryEndpoint ep = anonymousEndpoint();
+        AuthService auth = authService();
+
+        auth.getAuthHeader(ep, "a", "repository:a:pull");
+        auth.getAuthHeader(ep, "b", "repository:b:pull");
+        assertEquals(1, pings.get(), "second scope skips the ping");
+        assertEquals(2, tokens.get());
+
+        auth.onUnauthorized(ep, HttpFields.build().add(WWW_AUTHENTICATE, challenge()));
+        auth.getAuthHeader(ep, "c", "repository:c:pull");
+        assertEquals(1, pings.get(), "same challenge keeps the cached ping");
+
+        auth.onUnauthorized(ep, HttpFields.build().add(WWW_AUTHENTICATE, "Bearer realm=\"http://elsewhere/\""));
+        auth.getAuthHeader(ep, "d", "repository:d:pull");
+        assertEquals(2, pings.get(), "a different challenge is re-discovered");
+    }
+
+    @Test
+    void clientsWithEqualCredentialsShareTokens() throws Exception {
+        AtomicInteger tokens = new AtomicInteger();
+        setupServer(exchange -> {
+            if (isPing(exchange)) {
+                exchange.getResponseHeaders().add(WWW_AUTHENTICATE, challenge());
+                respond(exchange, 401, Map.of(), "");
+            } else {
+                respond(exchange, 200, Map.of(), "{\"token\":\"t" + tokens.incrementAndGet() + "\"}");
+            }
+        });
+        TokenCache shared = new TokenCache();
+        AuthService first = authService(shared);
+        AuthService second = authService(shared);
+
+        var alice = first.getAuthHeader(endpoint(Credentials.basic("a", "p")), REPO, REPO_PULL);
+        var aliceAgain = second.getAuthHeader(endpoint(Credentials.basic("a", "p")), REPO, REPO_PULL);
+        var bob = second.getAuthHeader(endpoint(Credentials.basic("b", "p")), REPO, REPO_PULL);
+
+        assertEquals(alice, aliceAgain, "equal credentials reuse the cached token");
+        assertEquals(Optional.of("Bearer t2"), bob, "other credentials get their own token");
+        assertEquals(2, tokens.get());
+    }
+
+    @Test
+    void concurrentMissesShareOneTokenFetch() throws Exception {
+        AtomicInteger pings = new AtomicInteger();
+        AtomicInteger tokens = new AtomicInteger();
+        setupServer(exchange -> {
+            if (isPing(exchange)) {
+                pings.incrementAndGet();
+                exchange.getResponseHeaders().add(WWW_AUTHENTICATE, challenge());
+                respond(exchange, 401, Map.of(), "");
+                return;
+            }
+            tokens.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, Map.of(), "{\"token\":\"t\"}");
+        });
+        AuthService auth = authService();
+        RegistryEndpoint ep = anonymousEndpoint();
+
+        List<CompletableFuture<Optional<String>>> calls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            calls.add(auth.getAuthHeaderAsync(ep, REPO, REPO_PULL));
+        }
+        for (var call : calls) {
+            assertEquals(Optional.of("Bearer t"), call.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, pings.get());
+        assertEquals(1, tokens.get());
+    }
+
+    @Test
+    void tokenIsRenewedAheadOfExpiryWithoutBlockingCallers() throws Exception {
+        AtomicInteger tokens = new AtomicInteger();
+        setupServer(exchange -> {
+            if (isPing(exchange)) {
+                exchange.getResponseHeaders().add(WWW_AUTHENTICATE, challenge());
+                respond(exchange, 401, Map.of(), "");
+                return;
+            }
+            respond(exchange, 200, Map.of(), "{\"token\":\"t" + tokens.incrementAndGet() + "\",\"expires_in\":2}");
+        });
+        AuthService auth = authService(new TokenCache(0.5));
+        RegistryEndpoint ep = anonymousEndpoint();
+
+        assertEquals(Optional.of("Bearer t1"), auth.getAuthHeader(ep, REPO, REPO_PULL));
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertEquals(Optional.of("Bearer t1"), auth.getAuthHeader(ep, REPO, REPO_PULL), "old token is still served");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (tokens.get() < 2 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        TimeUnit.MILLISECONDS.sleep(100); // let the renewed token land in the cache
+        assertEquals(Optional.of("Bearer t2"), auth.getAuthHeader(ep, REPO, REPO_PULL));
+        assertEquals(2, tokens.get(), "one background renewal");
+    }
+
+    private RegistryEndpoint anonymousEndpoint() {
+        return endpoint(null);
+    }
+
+    private RegistryEndpoint endpoint(Credentials credentials) {
+        return new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), credentials);
+    }
+
+    private static boolean isPing(HttpExchange exchange) {
+        return exchange.getRequestURI().getPath().equals("/v2/");
+    }
+
+    private String challenge() {
+        return "Bearer realm=\"" + realm() + "\"";
+    }
+
+    private String realm() {
+        return "http://localhost:" + server.getAddress().getPort() + "/token";
     }
 
     private AuthService authService() {
+        return authService(new TokenCache());
+    }
+
+    private AuthService authService(TokenCache tokens) {
         HttpClientConfig cfg = new HttpClientConfig();
         HttpClient client = HttpClientFactory.create(cfg);
-        return new AuthService(new HttpExecutor(client, cfg), new ObjectMapper(), new TokenCache());
+        return new AuthService(new HttpExecutor(client, cfg), new ObjectMapper(), tokens);
     }
 
     private void setupServer(HttpHandler handler) throws IOException {
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import riid.cache.TokenCache;
 import riid.client.api.BlobRequest;
 import riid.client.api.BlobResult;
+import riid.client.core.config.BlobDownloadConfig;
 import riid.client.core.config.RegistryEndpoint;
 import riid.client.http.HttpClientConfig;
 import riid.client.http.HttpClientFactory;
@@ -23,9 +24,15 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -40,7 +47,11 @@ class BlobServiceTest {
         CONTENT_TYPE("Content-Type"),
         OCTET("application/octet-stream"),
         METHOD_HEAD("HEAD"),
-        METHOD_GET("GET");
+        METHOD_GET("GET"),
+        TMP_PREFIX("blob-"),
+        TMP_SUFFIX(".bin"),
+        SHA256_PREFIX("sha256:"),
+        V2("/v2/");
 
         private final String value;
 
@@ -53,6 +64,11 @@ class BlobServiceTest {
         }
     }
 
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BLOBS_PATH = "/v2/repo/blobs/";
+    private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+
+    private final Random random = new Random();
     private HttpServer server;
 
     @AfterEach
@@ -65,7 +81,7 @@ class BlobServiceTest {
     @Test
     void downloadsBlobWithDigestValidation() throws Exception {
         byte[] data = "hello-blob".getBytes(StandardCharsets.UTF_8);
-        String digest = "sha256:" + sha256(data);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
         setupServer(exchange -> {
             String method = exchange.getRequestMethod();
             if (Strings.METHOD_HEAD.v().equals(method)) {
@@ -99,7 +115,7 @@ class BlobServiceTest {
         assertEquals(data.length, head.get());
 
         // GET
-        File tmp = Files.createTempFile("blob-", ".bin").toFile();
+        File tmp = Files.createTempFile(Strings.TMP_PREFIX.v(), Strings.TMP_SUFFIX.v()).toFile();
         tmp.deleteOnExit();
         BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
         BlobResult result = blob.fetchBlob(ep, req, tmp, Strings.SCOPE.v());
@@ -111,7 +127,7 @@ class BlobServiceTest {
     @Test
     void missingContentLengthFails() throws Exception {
         byte[] data = "no-length".getBytes(StandardCharsets.UTF_8);
-        String digest = "sha256:" + sha256(data);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
         setupServer(exchange -> {
             // respond without Content-Length (chunked)
             exchange.getResponseHeaders().add(Strings.CONTENT_TYPE.v(), Strings.OCTET.v());
@@ -131,7 +147,7 @@ class BlobServiceTest {
         AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(), new TokenCache());
         BlobService blob = new BlobService(exec, auth, null);
 
-        File tmp = Files.createTempFile("blob-", ".bin").toFile();
+        File tmp = Files.createTempFile(Strings.TMP_PREFIX.v(), Strings.TMP_SUFFIX.v()).toFile();
         tmp.deleteOnExit();
         BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, null, Strings.OCTET.v());
         assertThrows(RuntimeException.class, () -> blob.fetchBlob(ep, req, tmp, Strings.SCOPE.v()));
@@ -140,7 +156,7 @@ class BlobServiceTest {
     @Test
     void digestMismatchFails() throws Exception {
         byte[] data = "body".getBytes(StandardCharsets.UTF_8);
-        String expectedDigest = "sha256:" + sha256("other".getBytes(StandardCharsets.UTF_8));
+        String expectedDigest = Strings.SHA256_PREFIX.v() + sha256("other".getBytes(StandardCharsets.UTF_8));
         setupServer(exchange -> {
             exchange.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
             exchange.getResponseHeaders().add(Strings.CONTENT_TYPE.v(), Strings.OCTET.v());
@@ -155,7 +171,7 @@ class BlobServiceTest {
         HttpExecutor exec = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
         AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(), new TokenCache());
         BlobService blob = new BlobService(exec, auth, null);
-        File tmp = Files.createTempFile("blob-", ".bin").toFile();
+        File tmp = Files.createTempFile(Strings.TMP_PREFIX.v(), Strings.TMP_SUFFIX.v()).toFile();
         tmp.deleteOnExit();
         BlobRequest req = new BlobRequest(Strings.REPO.v(), expectedDigest, (long) data.length, Strings.OCTET.v());
         assertThrows(RuntimeException.class, () -> blob.fetchBlob(ep, req, tmp, Strings.SCOPE.v()));
@@ -194,13 +210,210 @@ class BlobServiceTest {
                 () -> blob.headBlob(ep, Strings.REPO.v(), "sha256:zzz", Strings.SCOPE.v()));
     }
 
+    @Test
+    void largeBlobIsDownloadedInParallelRanges() throws Exception {
+        byte[] data = randomBytes(1000, 7);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        setupServer(exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(String.valueOf(range));
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            exchange.getResponseHeaders().add("Content-Range", "bytes %d-%d/%d".formatted(start, end, data.length));
+            respond(exchange, 206, Map.of(Strings.CONTENT_TYPE.v(), Strings.OCTET.v()),
+                    Arrays.copyOfRange(data, start, end + 1));
+        });
+        BlobService blob = segmentedService();
+
+        File tmp = tempBlobFile();
+        BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
+        BlobResult result = blob.fetchBlob(localEndpoint(), req, tmp, Strings.SCOPE.v());
+
+        assertEquals(digest, result.digest());
+        assertArrayEquals(data, Files.readAllBytes(tmp.toPath()));
+        assertEquals(4, ranges.size(), "one request per segment");
+        assertTrue(ranges.contains("bytes=750-999"));
+    }
+
+    @Test
+    void ignoredRangeFallsBackToSingleStream() throws Exception {
+        byte[] data = randomBytes(1000, 11);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
+        setupServer(exchange -> respond(exchange, 200, Map.of(Strings.CONTENT_TYPE.v(), Strings.OCTET.v()), data));
+        BlobService blob = segmentedService();
+
+        File tmp = tempBlobFile();
+        BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
+        BlobResult result = blob.fetchBlob(localEndpoint(), req, tmp, Strings.SCOPE.v());
+
+        assertEquals(digest, result.digest());
+        assertArrayEquals(data, Files.readAllBytes(tmp.toPath()));
+    }
+
+    @Test
+    void redirectGoesToCdnWithoutAuthorizationAndIsCached() throws Exception {
+        byte[] data = "cdn-blob".getBytes(StandardCharsets.UTF_8);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
+        List<String> registryAuth = new CopyOnWriteArrayList<>();
+        List<String> cdnAuth = new CopyOnWriteArrayList<>();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        String base = "http://localhost:" + server.getAddress().getPort();
+        server.createContext(Strings.V2.v(), exchange -> respond(exchange, 401,
+                Map.of(WWW_AUTHENTICATE, "Bearer realm=\"" + base + "/token\",service=\"test\""), new byte[0]));
+        server.createContext("/token", exchange -> respond(exchange, 200, Map.of(Strings.CONTENT_TYPE.v(),
+                "application/json"), "{\"token\":\"secret\"}".getBytes(StandardCharsets.UTF_8)));
+        server.createContext(BLOBS_PATH, exchange -> {
+            registryAuth.add(String.valueOf(exchange.getRequestHeaders().getFirst(AUTHORIZATION)));
+            respond(exchange, 307, Map.of("Location", "/cdn/blob?Expires=" + (System.currentTimeMillis() / 1000
+                    + 3600)), new byte[0]);
+        });
+        server.createContext("/cdn/", exchange -> {
+            cdnAuth.add(String.valueOf(exchange.getRequestHeaders().getFirst(AUTHORIZATION)));
+            respond(exchange, 200, Map.of(Strings.CONTENT_TYPE.v(), Strings.OCTET.v()), data);
+        });
+        server.start();
+        HttpClientConfig cfg = new HttpClientConfig();
+        HttpExecutor exec = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
+        HttpExecutor cdn = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
+        AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(), new TokenCache());
+        BlobService blob = new BlobService(exec, cdn, auth, null, new BlobDownloadConfig());
+        BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
+
+        BlobResult first = blob.fetchBlob(localEndpoint(), req, tempBlobFile(), Strings.SCOPE.v());
+        File second = tempBlobFile();
+        blob.fetchBlob(localEndpoint(), req, second, Strings.SCOPE.v());
+
+        assertEquals(digest, first.digest());
+        assertArrayEquals(data, Files.readAllBytes(second.toPath()));
+        assertEquals(List.of("Bearer secret"), registryAuth, "second fetch uses the cached CDN URL");
+        assertEquals(List.of("null", "null"), cdnAuth, "registry token is not sent to the CDN");
+        assertEquals(1, cdn.poolStats().size(), "CDN requests go through the CDN client");
+    }
+
+    @Test
+    void cachedCdnUrlIsPerRegistry() throws Exception {
+        byte[] data = "mirrored-cdn-blob".getBytes(StandardCharsets.UTF_8);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
+        AtomicInteger[] registryGets = {new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger[] cdnGets = {new AtomicInteger(), new AtomicInteger()};
+        HttpServer first = redirectingMirror(data, registryGets[0], cdnGets[0]);
+        HttpServer second = redirectingMirror(data, registryGets[1], cdnGets[1]);
+        try {
+            HttpClientConfig cfg = new HttpClientConfig();
+            HttpExecutor exec = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
+            AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(),
+                    new TokenCache());
+            BlobService blob = new BlobService(exec, auth, null);
+            BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
+
+            blob.fetchBlob(endpointOf(first), req, tempBlobFile(), Strings.SCOPE.v());
+            blob.fetchBlob(endpointOf(second), req, tempBlobFile(), Strings.SCOPE.v());
+            File again = tempBlobFile();
+            blob.fetchBlob(endpointOf(first), req, again, Strings.SCOPE.v());
+
+            assertArrayEquals(data, Files.readAllBytes(again.toPath()));
+            assertEquals(1, registryGets[0].get(), "first mirror's CDN URL is reused for it");
+            assertEquals(1, registryGets[1].get(), "second mirror is asked itself, not sent to the first's CDN");
+            assertEquals(2, cdnGets[0].get());
+            assertEquals(1, cdnGets[1].get());
+        } finally {
+            first.stop(0);
+            second.stop(0);
+        }
+    }
+
+    /**
+     * Open registry whose blob GETs redirect to a CDN path on the same server.
+     */
+    private HttpServer redirectingMirror(byte[] data, AtomicInteger registryGets, AtomicInteger cdnGets)
+            throws IOException {
+        HttpServer mirror = HttpServer.create(new InetSocketAddress(0), 0);
+        mirror.createContext(Strings.V2.v(), exchange -> respond(exchange, 200, Map.of(), new byte[0]));
+        mirror.createContext(BLOBS_PATH, exchange -> {
+            registryGets.incrementAndGet();
+            respond(exchange, 307, Map.of("Location", "/cdn/blob"), new byte[0]);
+        });
+        mirror.createContext("/cdn/", exchange -> {
+            cdnGets.incrementAndGet();
+            respond(exchange, 200, Map.of(Strings.CONTENT_TYPE.v(), Strings.OCTET.v()), data);
+        });
+        mirror.start();
+        return mirror;
+    }
+
+    private static RegistryEndpoint endpointOf(HttpServer registry) {
+        return new RegistryEndpoint(Strings.HTTP_SCHEME.v(), Strings.HOST.v(), registry.getAddress().getPort(), null);
+    }
+
+    @Test
+    void revokedTokenIsRenewedAndRequestReplayedOnce() throws Exception {
+        byte[] data = "reauth-blob".getBytes(StandardCharsets.UTF_8);
+        String digest = Strings.SHA256_PREFIX.v() + sha256(data);
+        List<String> tokenQueries = new CopyOnWriteArrayList<>();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        String challenge = "Bearer realm=\"http://localhost:" + server.getAddress().getPort() + "/token\"";
+        server.createContext(Strings.V2.v(), exchange -> respond(exchange, 401,
+                Map.of(WWW_AUTHENTICATE, challenge), new byte[0]));
+        server.createContext("/token", exchange -> {
+            tokenQueries.add(exchange.getRequestURI().getRawQuery());
+            respond(exchange, 200, Map.of(), ("{\"token\":\"t" + tokenQueries.size() + "\"}")
+                    .getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext(BLOBS_PATH, exchange -> {
+            if (!"Bearer t2".equals(exchange.getRequestHeaders().getFirst(AUTHORIZATION))) {
+                respond(exchange, 401, Map.of(WWW_AUTHENTICATE, challenge + ",scope=\"repository:base:pull\""),
+                        new byte[0]);
+                return;
+            }
+            respond(exchange, 200, Map.of(Strings.CONTENT_TYPE.v(), Strings.OCTET.v()), data);
+        });
+        server.start();
+        HttpClientConfig cfg = new HttpClientConfig();
+        HttpExecutor exec = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
+        AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(), new TokenCache());
+        BlobService blob = new BlobService(exec, auth, null);
+        BlobRequest req = new BlobRequest(Strings.REPO.v(), digest, (long) data.length, Strings.OCTET.v());
+
+        File tmp = tempBlobFile();
+        BlobResult result = blob.fetchBlob(localEndpoint(), req, tmp, "repository:repo:pull");
+
+        assertEquals(digest, result.digest());
+        assertArrayEquals(data, Files.readAllBytes(tmp.toPath()));
+        assertEquals(2, tokenQueries.size(), "one re-authentication");
+        assertTrue(tokenQueries.get(1).contains("scope=repository%3Arepo%3Apull&scope=repository%3Abase%3Apull"),
+                "extra scope from the challenge is requested: " + tokenQueries.get(1));
+    }
+
+    private BlobService segmentedService() {
+        HttpClientConfig cfg = new HttpClientConfig();
+        HttpExecutor exec = new HttpExecutor(HttpClientFactory.create(cfg), cfg);
+        AuthService auth = new AuthService(exec, new com.fasterxml.jackson.databind.ObjectMapper(), new TokenCache());
+        return new BlobService(exec, auth, null, new BlobDownloadConfig(100, 4));
+    }
+
+    private static File tempBlobFile() throws IOException {
+        File tmp = Files.createTempFile(Strings.TMP_PREFIX.v(), Strings.TMP_SUFFIX.v()).toFile();
+        tmp.deleteOnExit();
+        return tmp;
+    }
+
+    private RegistryEndpoint localEndpoint() {
+        return new RegistryEndpoint(
+                Strings.HTTP_SCHEME.v(),
+                Strings.HOST.v(),
+                server.getAddress().getPort(),
+                null);
+    }
+
     private void setupServer(HttpHandler handler) throws IOException {
         server = HttpServer.create(new InetSocketAddress(0), 0);
         // ping
-        server.createContext("/v2/", exchange -> {
+        server.createContext(Strings.V2.v(), exchange -> {
             respond(exchange, 200, Map.of(), new byte[0]);
         });
-        server.createContext("/v2/" + Strings.REPO.v() + "/blobs/", handler);
+        server.createContext(BLOBS_PATH, handler);
         server.start();
     }
 
@@ -215,6 +428,13 @@ class BlobServiceTest {
         }
     }
 
+    private byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        random.setSeed(seed);
+        random.nextBytes(data);
+        return data;
+    }
+
     private String sha256(byte[] data) throws Exception {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         return bytesToHex(md.digest(data));
@@ -3,11 +3,19 @@ package riid.client.unit;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import org.eclipse.jetty.client.transport.HttpClientTransportDynamic;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import riid.client.core.error.ClientError;
+import riid.client.core.error.ClientException;
+import riid.client.http.CircuitBreakerConfig;
+import riid.client.http.ConnectionPoolConfig;
+import riid.client.http.ConnectionPoolStats;
 import riid.client.http.HttpClientConfig;
 import riid.client.http.HttpClientFactory;
 import riid.client.http.HttpExecutor;
+import riid.client.http.HttpProtocol;
+import riid.client.http.RetryBudgetConfig;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -15,20 +23,34 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class HttpExecutorTest {
     private static final int FIRST_CALL = 1;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String FAIL_PATH = "/fail";
 
     private HttpServer server;
+    private ExecutorService handlers;
 
     @AfterEach
     void tearDown() {
         if (server != null) {
             server.stop(0);
+            handlers.shutdownNow();
         }
     }
 
@@ -66,13 +88,252 @@ class HttpExecutorTest {
         assertEquals(2, calls.get(), "should stop after max retries + first attempt");
     }
 
+    @Test
+    void asyncRetriesOn503ThenSucceeds() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        setupServer(exchange -> {
+            int n = calls.incrementAndGet();
+            respond(exchange, n == FIRST_CALL ? 503 : 200, Map.of(), "ok");
+        });
+        var resp = executor(1).getBytesAsync(uri("/ok"), Map.of()).get(5, TimeUnit.SECONDS);
+        assertEquals(200, resp.statusCode());
+        assertEquals("ok", new String(resp.body(), StandardCharsets.UTF_8));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void cancelDuringBackoffStopsRetries() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch firstCall = new CountDownLatch(1);
+        setupServer(exchange -> {
+            calls.incrementAndGet();
+            respond(exchange, 503, Map.of(), "");
+            firstCall.countDown();
+        });
+        HttpExecutor exec = executor(3, Duration.ofMillis(300));
+        var pending = exec.headAsync(uri("/busy"), Map.of());
+        assertTrue(firstCall.await(5, TimeUnit.SECONDS));
+        assertTrue(pending.cancel(true));
+        TimeUnit.MILLISECONDS.sleep(800);
+        assertEquals(1, calls.get(), "scheduled retry must not fire after cancel");
+    }
+
+    @Test
+    void virtualThreadClientExecutesRequests() throws Exception {
+        setupServer(exchange -> respond(exchange, 200, Map.of(), "ok"));
+        HttpClientConfig cfg = noRetries().withVirtualThreads(true);
+        try (var client = HttpClientFactory.create(cfg)) {
+            var resp = new HttpExecutor(client, cfg).getBytesAsync(uri("/vt"), Map.of()).get(5, TimeUnit.SECONDS);
+            assertEquals("ok", new String(resp.body(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void http2ClientFallsBackToHttp11ForCleartext() throws Exception {
+        setupServer(exchange -> respond(exchange, 200, Map.of(), "ok"));
+        HttpClientConfig cfg = noRetries().withProtocol(HttpProtocol.HTTP_2);
+        try (var client = HttpClientFactory.create(cfg)) {
+            assertInstanceOf(HttpClientTransportDynamic.class, client.getHttpClientTransport());
+            var resp = new HttpExecutor(client, cfg).getBytesAsync(uri("/h2"), Map.of()).get(5, TimeUnit.SECONDS);
+            assertEquals("ok", new String(resp.body(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void preconnectOpensConfiguredConnectionsAndStatsReportThem() throws Exception {
+        setupServer(exchange -> respond(exchange, 200, Map.of(), "ok"));
+        HttpClientConfig cfg = noRetries().withPool(new ConnectionPoolConfig(4, 16, Duration.ofSeconds(5), 2));
+        try (var client = HttpClientFactory.create(cfg)) {
+            HttpExecutor exec = new HttpExecutor(client, cfg);
+            exec.preconnect(uri("/")).get(5, TimeUnit.SECONDS);
+            exec.getBytesAsync(uri("/pool"), Map.of()).get(5, TimeUnit.SECONDS);
+
+            ConnectionPoolStats stats = exec.poolStats().getFirst();
+            assertEquals("http://localhost:" + server.getAddress().getPort(), stats.destination());
+            assertEquals(2, stats.connections(), "the request reuses a prewarmed connection");
+            assertEquals(4, stats.maxConnections());
+            assertEquals(1, stats.dequeuedRequests());
+        }
+    }
+
+    @Test
+    void retryWaitsForRetryAfter() throws Exception {
+        List<Long> callNanos = new CopyOnWriteArrayList<>();
+        setupServer(exchange -> {
+            callNanos.add(System.nanoTime());
+            boolean first = callNanos.size() == FIRST_CALL;
+            respond(exchange, first ? 429 : 200, first ? Map.of(RETRY_AFTER, "1") : Map.of(), "ok");
+        });
+        var resp = executor(1, Duration.ofMillis(10), Duration.ofSeconds(5))
+                .getBytesAsync(uri("/limited"), Map.of()).get(5, TimeUnit.SECONDS);
+        assertEquals(200, resp.statusCode());
+        assertEquals(2, callNanos.size());
+        assertTrue(callNanos.get(1) - callNanos.get(0) >= TimeUnit.MILLISECONDS.toNanos(950),
+                "retry must not be sent before Retry-After");
+    }
+
+    @Test
+    void retryAfterBeyondTimeoutFailsFastWithoutRetry() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        setupServer(exchange -> {
+            calls.incrementAndGet();
+            respond(exchange, 429, Map.of(RETRY_AFTER, "3600"), "");
+        });
+        HttpExecutor exec = executor(2);
+        assertEquals(429, exec.getBytesAsync(uri("/quota"), Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+
+        var next = exec.getBytesAsync(uri("/quota"), Map.of());
+        var failure = assertThrows(ExecutionException.class, () -> next.get(5, TimeUnit.SECONDS));
+        var error = assertInstanceOf(ClientException.class, failure.getCause()).error();
+        assertEquals(ClientError.HttpKind.RATE_LIMITED, assertInstanceOf(ClientError.Http.class, error).kind());
+        assertEquals(1, calls.get(), "nothing is sent while the host is blocked");
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailuresAndProbesAfterCooldown() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        setupServer(exchange -> respond(exchange, calls.incrementAndGet() <= 2 ? 500 : 200, Map.of(), "ok"));
+        HttpClientConfig cfg = noRetries().withCircuitBreaker(new CircuitBreakerConfig(2, Duration.ofMillis(300)));
+        try (var client = HttpClientFactory.create(cfg)) {
+            HttpExecutor exec = new HttpExecutor(client, cfg);
+            URI flaky = uri("/flaky");
+            assertEquals(500, exec.getBytesAsync(flaky, Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(500, exec.getBytesAsync(flaky, Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+
+            var rejected = exec.getBytesAsync(flaky, Map.of());
+            var failure = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            var error = assertInstanceOf(ClientException.class, failure.getCause()).error();
+            assertEquals(ClientError.HttpKind.CIRCUIT_OPEN, assertInstanceOf(ClientError.Http.class, error).kind());
+            assertEquals(2, calls.get(), "open circuit fails fast");
+
+            TimeUnit.MILLISECONDS.sleep(350);
+            assertEquals(200, exec.getBytesAsync(flaky, Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(200, exec.getBytesAsync(flaky, Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(4, calls.get(), "successful probe closes the circuit");
+        }
+    }
+
+    @Test
+    void ignoredRequestDoesNotFreeTheHalfOpenProbe() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        setupServer(exchange -> {
+            calls.incrementAndGet();
+            if (FAIL_PATH.equals(exchange.getRequestURI().getPath())) {
+                respond(exchange, 500, Map.of(), "");
+                return;
+            }
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, Map.of(), "ok");
+        });
+        HttpClientConfig cfg = noRetries().withCircuitBreaker(new CircuitBreakerConfig(1, Duration.ofMillis(200)));
+        try (var client = HttpClientFactory.create(cfg)) {
+            HttpExecutor exec = new HttpExecutor(client, cfg);
+            var beforeOpen = exec.getBytesAsync(uri("/slow"), Map.of());
+            assertEquals(500, exec.getBytesAsync(uri(FAIL_PATH), Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+
+            TimeUnit.MILLISECONDS.sleep(250);
+            var probe = exec.getBytesAsync(uri("/slow"), Map.of());
+            beforeOpen.cancel(true);
+
+            var rejected = exec.getBytesAsync(uri("/slow"), Map.of());
+            var failure = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            var error = assertInstanceOf(ClientException.class, failure.getCause()).error();
+            assertEquals(ClientError.HttpKind.CIRCUIT_OPEN, assertInstanceOf(ClientError.Http.class, error).kind(),
+                    "cancelling a request sent before the circuit opened must not admit a second probe");
+
+            release.countDown();
+            assertEquals(200, probe.get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(3, calls.get());
+        }
+    }
+
+    @Test
+    void requestSentBeforeOpeningCannotCloseHalfOpenCircuit() throws Exception {
+        CountDownLatch early = new CountDownLatch(1);
+        CountDownLatch trial = new CountDownLatch(1);
+        setupServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (FAIL_PATH.equals(path)) {
+                respond(exchange, 500, Map.of(), "");
+                return;
+            }
+            try {
+                (path.startsWith("/early") ? early : trial).await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, Map.of(), "ok");
+        });
+        HttpClientConfig cfg = noRetries().withCircuitBreaker(new CircuitBreakerConfig(1, Duration.ofMillis(200)));
+        try (var client = HttpClientFactory.create(cfg)) {
+            HttpExecutor exec = new HttpExecutor(client, cfg);
+            var beforeOpen = exec.getBytesAsync(uri("/early"), Map.of());
+            assertEquals(500, exec.getBytesAsync(uri(FAIL_PATH), Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+
+            TimeUnit.MILLISECONDS.sleep(250);
+            var probe = exec.getBytesAsync(uri("/trial"), Map.of());
+            early.countDown();
+            assertEquals(200, beforeOpen.get(5, TimeUnit.SECONDS).statusCode());
+
+            var rejected = exec.getBytesAsync(uri("/trial"), Map.of());
+            var failure = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            var error = assertInstanceOf(ClientException.class, failure.getCause()).error();
+            assertEquals(ClientError.HttpKind.CIRCUIT_OPEN, assertInstanceOf(ClientError.Http.class, error).kind(),
+                    "only the trial request may close a half-open circuit");
+
+            trial.countDown();
+            assertEquals(200, probe.get(5, TimeUnit.SECONDS).statusCode());
+            assertEquals(200, exec.getBytesAsync(uri("/trial"), Map.of()).get(5, TimeUnit.SECONDS).statusCode());
+        }
+    }
+
+    @Test
+    void retriesBeyondBudgetFailFast() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        setupServer(exchange -> {
+            calls.incrementAndGet();
+            respond(exchange, 503, Map.of(), "");
+        });
+        HttpClientConfig cfg = new HttpClientConfig(null, null, 3, Duration.ofMillis(10), Duration.ofMillis(10), true,
+                null, true).withRetryBudget(new RetryBudgetConfig(0.1, 1));
+        try (var client = HttpClientFactory.create(cfg)) {
+            HttpExecutor exec = new HttpExecutor(client, cfg);
+            var first = exec.getBytesAsync(uri("/down"), Map.of());
+            var failure = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            var error = assertInstanceOf(ClientException.class, failure.getCause()).error();
+            assertEquals(ClientError.HttpKind.RETRY_EXHAUSTED, assertInstanceOf(ClientError.Http.class, error).kind());
+            assertEquals(2, calls.get(), "one retry from the reserve, then the budget is spent");
+
+            var second = exec.getBytesAsync(uri("/down"), Map.of());
+            assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+            assertEquals(3, calls.get(), "no retry without budget");
+        }
+    }
+
+    private static HttpClientConfig noRetries() {
+        return new HttpClientConfig(null, null, 0, null, null, true, null, true);
+    }
+
     private HttpExecutor executor(int maxRetries) {
+        return executor(maxRetries, Duration.ofMillis(10));
+    }
+
+    private HttpExecutor executor(int maxRetries, Duration backoff) {
+        return executor(maxRetries, backoff, Duration.ofSeconds(1));
+    }
+
+    private HttpExecutor executor(int maxRetries, Duration backoff, Duration requestTimeout) {
         HttpClientConfig cfg = new HttpClientConfig(
                 Duration.ofSeconds(1),
-                Duration.ofSeconds(1),
+                requestTimeout,
                 maxRetries,
-                Duration.ofMillis(10),
-                Duration.ofMillis(10),
+                backoff,
+                backoff,
                 true,
                 "test-agent",
                 true);
@@ -83,6 +344,8 @@ class HttpExecutorTest {
     private void setupServer(HttpHandler handler) throws IOException {
         server = HttpServer.create(new InetSocketAddress(0), 0);
         server.createContext("/", handler);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
         server.start();
     }
 
@@ -0,0 +1,244 @@
+package riid.client.unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import riid.cache.CacheAdapter;
+import riid.cache.CacheEntry;
+import riid.cache.CacheMediaType;
+import riid.cache.CachePayload;
+import riid.cache.CacheStaging;
+import riid.cache.FileCacheAdapter;
+import riid.cache.ImageDigest;
+import riid.client.api.BlobRequest;
+import riid.client.api.BlobResult;
+import riid.client.api.ManifestResult;
+import riid.client.api.MultiEndpointRegistryClient;
+import riid.client.core.config.CentralRegistryConfig;
+import riid.client.core.config.HedgeConfig;
+import riid.client.core.config.RegistryEndpoint;
+import riid.client.core.model.manifest.Descriptor;
+import riid.client.core.model.manifest.Manifest;
+import riid.client.http.HttpClientConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiEndpointRegistryClientTest {
+    private static final String REPO = "repo";
+    private static final String OCTET = "application/octet-stream";
+    private static final String MANIFEST_TYPE = "application/vnd.docker.distribution.manifest.v2+json";
+    private static final byte[] LAYER = "mirrored-layer".getBytes(StandardCharsets.UTF_8);
+    private static final String LAYER_DIGEST = "sha256:" + sha256(LAYER);
+    private static final long SLOW_MILLIS = 3000;
+    private static final HedgeConfig FAST_HEDGE = new HedgeConfig(0.95, Duration.ofMillis(100), Duration.ofMillis(10));
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        mirrors.forEach(m -> m.server.stop(0));
+    }
+
+    @Test
+    void slowMirrorIsHedgedAndLoses() throws Exception {
+        Mirror slow = mirror(SLOW_MILLIS, 200);
+        Mirror fast = mirror(0, 200);
+        try (var client = client(slow, fast)) {
+            File target = tempFile();
+            long started = System.nanoTime();
+            BlobResult blob = client.fetchBlobAsync(request(), target).get(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS);
+
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS),
+                    "hedged request should win");
+            assertEquals(target.getAbsolutePath(), blob.path());
+            assertArrayEquals(LAYER, Files.readAllBytes(target.toPath()));
+            assertEquals(1, slow.blobGets.get());
+            assertEquals(1, fast.blobGets.get());
+            File[] leftovers = target.getParentFile().listFiles((dir, name) -> name.startsWith("hedge-"));
+            assertEquals(0, leftovers == null ? 0 : leftovers.length, "losing download is cleaned up");
+        }
+    }
+
+    @Test
+    void fasterMirrorIsRankedFirstAfterHedge() throws Exception {
+        Mirror slow = mirror(SLOW_MILLIS, 200);
+        Mirror fast = mirror(0, 200);
+        try (var client = client(slow, fast)) {
+            client.fetchBlobAsync(request(), tempFile()).get(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS);
+            client.fetchBlobAsync(request(), tempFile()).get(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS);
+
+            assertEquals(1, slow.blobGets.get(), "second fetch goes straight to the faster mirror");
+            assertEquals(2, fast.blobGets.get());
+        }
+    }
+
+    @Test
+    void failedMirrorFallsOverForManifest() throws Exception {
+        Mirror broken = mirror(0, 404);
+        Mirror healthy = mirror(0, 200);
+        try (var client = client(broken, healthy)) {
+            ManifestResult manifest = client.fetchManifestAsync(REPO, "latest").get(5, TimeUnit.SECONDS);
+
+            assertEquals(LAYER_DIGEST, manifest.manifest().layers().getFirst().digest());
+            assertEquals(1, broken.manifestGets.get());
+            assertEquals(1, healthy.manifestGets.get());
+        }
+    }
+
+    @Test
+    void hedgedBlobIsCachedOnceFromTheWinner() throws Exception {
+        Mirror slow = mirror(SLOW_MILLIS, 200);
+        Mirror fast = mirror(0, 200);
+        CountingCache cache = new CountingCache(new FileCacheAdapter(
+                Files.createTempDirectory("mirror-cache-").toString()));
+        try (var client = new MultiEndpointRegistryClient(endpoints(slow, fast), new HttpClientConfig(), cache,
+                FAST_HEDGE)) {
+            File target = tempFile();
+            BlobResult blob = client.fetchBlobAsync(request(), target).get(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS);
+
+            assertArrayEquals(LAYER, Files.readAllBytes(Path.of(blob.path())), "the result is the cache entry");
+            try (var left = Files.list(target.toPath().getParent())) {
+                assertEquals(0, left.count(), "no download or spare file is left next to the target");
+            }
+            assertTrue(cache.has(ImageDigest.parse(LAYER_DIGEST)));
+            assertEquals(1, cache.stages.get(), "only the winner is staged, attempts download next to the target");
+            assertEquals(0, cache.puts.get(), "the winner is moved into the cache, not copied");
+        }
+    }
+
+    private MultiEndpointRegistryClient client(Mirror... servers) {
+        return new MultiEndpointRegistryClient(endpoints(servers), new HttpClientConfig(), null, FAST_HEDGE);
+    }
+
+    private static CentralRegistryConfig endpoints(Mirror... servers) {
+        List<RegistryEndpoint> endpoints = new ArrayList<>();
+        for (Mirror m : servers) {
+            endpoints.add(new RegistryEndpoint("http", "localhost", m.server.getAddress().getPort(), null));
+        }
+        return new CentralRegistryConfig(endpoints);
+    }
+
+    private Mirror mirror(long delayMillis, int status) throws IOException {
+        Mirror mirror = new Mirror(HttpServer.create(new InetSocketAddress(0), 0));
+        byte[] manifest = new ObjectMapper().writeValueAsBytes(new Manifest(2, MANIFEST_TYPE,
+                new Descriptor("application/vnd.docker.container.image.v1+json", LAYER_DIGEST, LAYER.length),
+                List.of(new Descriptor(OCTET, LAYER_DIGEST, LAYER.length))));
+        mirror.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        mirror.server.createContext("/v2/", exchange -> respond(exchange, 200, null, new byte[0]));
+        mirror.server.createContext("/v2/" + REPO + "/manifests/latest", exchange -> {
+            mirror.manifestGets.incrementAndGet();
+            respond(exchange, status, MANIFEST_TYPE, status == 200 ? manifest : new byte[0]);
+        });
+        mirror.server.createContext("/v2/" + REPO + "/blobs/" + LAYER_DIGEST, exchange -> {
+            mirror.blobGets.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, status, OCTET, LAYER);
+        });
+        mirror.server.start();
+        mirrors.add(mirror);
+        return mirror;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static BlobRequest request() {
+        return new BlobRequest(REPO, LAYER_DIGEST, (long) LAYER.length, OCTET);
+    }
+
+    private static File tempFile() throws IOException {
+        File dir = Files.createTempDirectory("mirror-").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "blob.bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * File cache that counts how blobs are written into it.
+     */
+    private static final class CountingCache implements CacheAdapter {
+        private final CacheAdapter delegate;
+        private final AtomicInteger puts = new AtomicInteger();
+        private final AtomicInteger stages = new AtomicInteger();
+
+        CountingCache(CacheAdapter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean has(ImageDigest digest) {
+            return delegate.has(digest);
+        }
+
+        @Override
+        public Optional<CacheEntry> get(ImageDigest digest) {
+            return delegate.get(digest);
+        }
+
+        @Override
+        public Optional<Path> resolve(String key) {
+            return delegate.resolve(key);
+        }
+
+        @Override
+        public CacheEntry put(ImageDigest digest, CachePayload payload, CacheMediaType mediaType)
+                throws IOException {
+            puts.incrementAndGet();
+            return delegate.put(digest, payload, mediaType);
+        }
+
+        @Override
+        public Optional<CacheStaging> stage(ImageDigest digest) throws IOException {
+            stages.incrementAndGet();
+            return delegate.stage(digest);
+        }
+    }
+
+    private record Mirror(HttpServer server, AtomicInteger blobGets, AtomicInteger manifestGets) {
+        Mirror(HttpServer server) {
+            this(server, new AtomicInteger(), new AtomicInteger());
+        }
+    }
+}
@@ -20,10 +20,20 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -31,11 +41,13 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 class RegistryClientImplTest {
     private static final String SHA_PREFIX = "sha256:";
     private static final String REPO = "repo";
+    private static final String TAG = "latest";
     private static final String OCTET = "application/octet-stream";
     private static final String CONTENT_TYPE = "Content-Type";
     private static final String METHOD_GET = "GET";
     private static final String METHOD_HEAD = "HEAD";
     private static final String API_PREFIX = "/v2/";
+    private static final String BLOBS_PATH = API_PREFIX + REPO + "/blobs/";
     private static final int STATUS_OK = 200;
     private static final int STATUS_NOT_FOUND = 404;
     private static final int STATUS_METHOD_NOT_ALLOWED = 405;
@@ -59,15 +71,15 @@ class RegistryClientImplTest {
 
         startServer(layer, layerDigest, manifestBytes, manifestDigest, 200, 200);
 
-        RegistryEndpoint ep = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        RegistryEndpoint ep = localEndpoint();
         try (RegistryClientImpl client = new RegistryClientImpl(ep, new HttpClientConfig(), (CacheAdapter) null)) {
 
-        var mf = client.fetchManifest(REPO, "latest");
+        var mf = client.fetchManifest(REPO, TAG);
         assertEquals(manifestDigest, mf.digest());
         assertEquals(1, mf.manifest().layers().size());
         assertEquals(layerDigest, mf.manifest().layers().getFirst().digest());
 
-        File tmp = File.createTempFile("blob-", ".bin");
+        File tmp = tempBlob();
         tmp.deleteOnExit();
         BlobRequest req = new BlobRequest(REPO, layerDigest, (long) layer.length, OCTET);
         BlobResult br = client.fetchBlob(req, tmp);
@@ -82,10 +94,119 @@ class RegistryClientImplTest {
         }
     }
 
+    @Test
+    void concurrentFetchesOfSameDigestDownloadOnce() throws Exception {
+        byte[] layer = "shared-layer".getBytes(StandardCharsets.UTF_8);
+        String layerDigest = SHA_PREFIX + sha256(layer);
+        AtomicInteger blobGets = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext(API_PREFIX, exchange -> respond(exchange, STATUS_OK, Map.of(), ""));
+        server.createContext(BLOBS_PATH + layerDigest, exchange -> {
+            blobGets.incrementAndGet();
+            try {
+                TimeUnit.MILLISECONDS.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, STATUS_OK, Map.of(CONTENT_TYPE, OCTET), layer);
+        });
+        server.start();
+
+        RegistryEndpoint ep = localEndpoint();
+        int callers = 8;
+        try (RegistryClientImpl client = new RegistryClientImpl(ep, new HttpClientConfig(), (CacheAdapter) null);
+             ExecutorService pool = Executors.newFixedThreadPool(callers)) {
+            BlobRequest req = new BlobRequest(REPO, layerDigest, (long) layer.length, OCTET);
+            List<CompletableFuture<BlobResult>> futures = new ArrayList<>();
+            List<File> targets = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        File tmp = tempBlob();
+                        tmp.deleteOnExit();
+                        targets.add(tmp);
+                        return client.fetchBlob(req, tmp);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, pool));
+            }
+            for (var f : futures) {
+                BlobResult br = f.join();
+                assertEquals(layerDigest, br.digest());
+                assertEquals(layer.length, new File(br.path()).length());
+            }
+            for (File target : targets) {
+                assertArrayEquals(layer, Files.readAllBytes(target.toPath()), "every caller's target is written");
+            }
+        }
+        assertEquals(1, blobGets.get(), "same digest must be downloaded once");
+    }
+
+    @Test
+    void joinerGetsBlobAfterFirstCallerCancelledAndDeletedItsTarget() throws Exception {
+        byte[] layer = "joined-layer".getBytes(StandardCharsets.UTF_8);
+        String layerDigest = SHA_PREFIX + sha256(layer);
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext(API_PREFIX, exchange -> respond(exchange, STATUS_OK, Map.of(), ""));
+        server.createContext(BLOBS_PATH + layerDigest, exchange -> {
+            requested.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, STATUS_OK, Map.of(CONTENT_TYPE, OCTET), layer);
+        });
+        server.start();
+
+        try (RegistryClientImpl client = new RegistryClientImpl(localEndpoint(), new HttpClientConfig(), null)) {
+            BlobRequest req = new BlobRequest(REPO, layerDigest, (long) layer.length, OCTET);
+            File first = tempBlob();
+            File second = tempBlob();
+            second.deleteOnExit();
+            var leader = client.fetchBlobAsync(req, first);
+            var joiner = client.fetchBlobAsync(req, second);
+            assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+            assertTrue(leader.cancel(true));
+            assertTrue(first.delete(), "a cancelled caller cleans up its own target");
+            release.countDown();
+
+            BlobResult result = joiner.get(5, TimeUnit.SECONDS);
+            assertEquals(second.getAbsolutePath(), result.path());
+            assertArrayEquals(layer, Files.readAllBytes(second.toPath()));
+        }
+    }
+
+    @Test
+    void asyncFetchManifestAndBlob() throws Exception {
+        byte[] layer = "async-layer".getBytes(StandardCharsets.UTF_8);
+        String layerDigest = SHA_PREFIX + sha256(layer);
+        byte[] manifestBytes = new ObjectMapper().writeValueAsBytes(manifest(layerDigest, layer.length));
+        String manifestDigest = SHA_PREFIX + sha256(manifestBytes);
+        startServer(layer, layerDigest, manifestBytes, manifestDigest, STATUS_OK, STATUS_OK);
+
+        try (RegistryClientImpl client = new RegistryClientImpl(localEndpoint(), new HttpClientConfig(), null)) {
+            File tmp = tempBlob();
+            tmp.deleteOnExit();
+            BlobResult blob = client.fetchManifestAsync(REPO, TAG)
+                    .thenCompose(mf -> client.fetchBlobAsync(
+                            new BlobRequest(REPO, mf.manifest().layers().getFirst().digest(),
+                                    (long) layer.length, OCTET),
+                            tmp))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(layerDigest, blob.digest());
+            assertEquals(layer.length, tmp.length());
+        }
+    }
+
     @Test
     void listTagsErrorThrows() throws Exception {
         startServer(new byte[0], "sha256:dead", new byte[0], "sha256:dead", 500, 500);
-        RegistryEndpoint ep = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        RegistryEndpoint ep = localEndpoint();
         try (RegistryClientImpl client = new RegistryClientImpl(ep, new HttpClientConfig(), (CacheAdapter) null)) {
             assertThrows(RuntimeException.class, () -> client.listTags(REPO, null, null));
         }
@@ -95,12 +216,42 @@ class RegistryClientImplTest {
     void headBlobNotFound() throws Exception {
         // only HEAD returns 404
         startServerHeadOnly404();
-        RegistryEndpoint ep = new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+        RegistryEndpoint ep = localEndpoint();
         try (RegistryClientImpl client = new RegistryClientImpl(ep, new HttpClientConfig(), (CacheAdapter) null)) {
             assertTrue(client.headBlob(REPO, SHA_PREFIX + "missing").isEmpty());
         }
     }
 
+    @Test
+    void prewarmResolvesTokenBeforeFirstPull() throws Exception {
+        byte[] manifestBytes = new ObjectMapper().writeValueAsBytes(manifest(SHA_PREFIX + "layer", 1));
+        AtomicInteger pings = new AtomicInteger();
+        AtomicInteger tokens = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        String realm = "http://localhost:" + server.getAddress().getPort() + "/token";
+        server.createContext(API_PREFIX, exchange -> {
+            pings.incrementAndGet();
+            respond(exchange, 401, Map.of("WWW-Authenticate", "Bearer realm=\"" + realm + "\",service=\"test\""), "");
+        });
+        server.createContext("/token", exchange -> {
+            tokens.incrementAndGet();
+            respond(exchange, STATUS_OK, Map.of(CONTENT_TYPE, "application/json"),
+                    "{\"token\":\"warm\",\"expires_in\":300}");
+        });
+        server.createContext(API_PREFIX + REPO + "/manifests/latest", exchange -> respond(exchange, STATUS_OK,
+                Map.of(CONTENT_TYPE, "application/vnd.docker.distribution.manifest.v2+json"), manifestBytes));
+        server.start();
+
+        try (RegistryClientImpl client = new RegistryClientImpl(localEndpoint(), new HttpClientConfig(), null)) {
+            client.prewarm(List.of(REPO)).get(5, TimeUnit.SECONDS);
+            assertEquals(1, tokens.get());
+
+            client.fetchManifest(REPO, TAG);
+            assertEquals(1, pings.get(), "first pull reuses the prewarmed token");
+            assertEquals(1, tokens.get());
+        }
+    }
+
     private void startServer(byte[] layer,
                              String layerDigest,
                              byte[] manifestBytes,
@@ -120,7 +271,7 @@ class RegistryClientImplTest {
             );
             respond(exchange, STATUS_OK, headers, manifestBytes);
         });
-        server.createContext(API_PREFIX + REPO + "/blobs/" + layerDigest, exchange -> {
+        server.createContext(BLOBS_PATH + layerDigest, exchange -> {
             if (METHOD_HEAD.equals(exchange.getRequestMethod())) {
                 if (blobStatus == STATUS_NOT_FOUND) {
                     respond(exchange, STATUS_NOT_FOUND, Map.of(), new byte[0]);
@@ -155,11 +306,19 @@ class RegistryClientImplTest {
     private void startServerHeadOnly404() throws IOException {
         server = HttpServer.create(new InetSocketAddress(0), 0);
         server.createContext(API_PREFIX, exchange -> respond(exchange, STATUS_OK, Map.of(), ""));
-        server.createContext(API_PREFIX + REPO + "/blobs/" + SHA_PREFIX + "missing",
+        server.createContext(BLOBS_PATH + SHA_PREFIX + "missing",
                 exchange -> respond(exchange, STATUS_NOT_FOUND, Map.of(), new byte[0]));
         server.start();
     }
 
+    private static File tempBlob() throws IOException {
+        return File.createTempFile("blob-", ".bin");
+    }
+
+    private RegistryEndpoint localEndpoint() {
+        return new RegistryEndpoint("http", "localhost", server.getAddress().getPort(), null);
+    }
+
     private void respond(HttpExchange exchange, int status, Map<String, String> headers, String body)
             throws IOException {
         respond(exchange, status, headers, body.getBytes(StandardCharsets.UTF_8));
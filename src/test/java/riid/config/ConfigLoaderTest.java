@@ -3,6 +3,7 @@ package riid.config;
 import org.junit.jupiter.api.Test;
 import riid.client.core.config.Credentials;
 import riid.client.core.config.RegistryEndpoint;
+import riid.client.http.ConnectionPoolConfig;
 import riid.client.http.HttpClientConfig;
 
 import java.nio.file.Files;
@@ -88,8 +89,15 @@ class ConfigLoaderTest {
                     retryIdempotentOnly: false
                     userAgent: "riid-test-agent"
                     followRedirects: false
+                    virtualThreads: true
+                    pool:
+                      maxConnections: 8
+                      maxQueuedRequests: 128
+                      idleTimeout: PT15S
+                      prewarmConnections: 2
                   auth:
                     defaultTokenTtlSeconds: 900
+                    refreshAheadRatio: 0.5
                   registries:
                     - scheme: https
                       host: example.org
@@ -104,6 +112,11 @@ class ConfigLoaderTest {
                         identityToken: token-123
                 dispatcher:
                   maxConcurrentRegistry: 10
+                  workerThreads: 16
+                  virtualThreads: true
+                  registryLimitMin: 2
+                  registryLimitMax: 40
+                  p2pGracePeriod: PT0.05S
                 """;
         Path tmp = Files.createTempFile(TMP_PREFIX, TMP_SUFFIX);
         Files.writeString(tmp, yaml);
@@ -128,7 +141,15 @@ class ConfigLoaderTest {
         assertEquals("riid-test-agent", cfg.client().http().userAgent());
         assertEquals(false, cfg.client().http().followRedirects());
         assertEquals(900, cfg.client().auth().defaultTokenTtlSeconds());
+        assertEquals(0.5, cfg.client().auth().refreshAheadRatio());
         assertEquals(10, cfg.dispatcher().maxConcurrentRegistry());
+        assertEquals(16, cfg.dispatcher().workerThreads());
+        assertEquals(true, cfg.dispatcher().virtualThreads());
+        assertEquals(2, cfg.dispatcher().registryLimitMin());
+        assertEquals(40, cfg.dispatcher().registryLimitMax());
+        assertEquals(Duration.ofMillis(50), cfg.dispatcher().p2pGracePeriod());
+        assertEquals(true, cfg.client().http().virtualThreads());
+        assertEquals(new ConnectionPoolConfig(8, 128, Duration.ofSeconds(15), 2), cfg.client().http().pool());
     }
 
     @Test
@@ -176,4 +197,23 @@ class ConfigLoaderTest {
 
         assertThrows(ConfigValidationException.class, () -> ConfigLoader.load(tmp));
     }
+
+    @Test
+    void refreshAheadRatioOutOfRangeFailsValidation() throws Exception {
+        String yaml = """
+                client:
+                  auth:
+                    refreshAheadRatio: 1.5
+                  registries:
+                    - scheme: https
+                      host: example.org
+                      port: -1
+                dispatcher:
+                  maxConcurrentRegistry: 1
+                """;
+        Path tmp = Files.createTempFile(TMP_PREFIX, TMP_SUFFIX);
+        Files.writeString(tmp, yaml);
+
+        assertThrows(ConfigValidationException.class, () -> ConfigLoader.load(tmp));
+    }
 }
@@ -0,0 +1,139 @@
+package riid.dispatcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistryLimiterTest {
+    private static final long MIB = 1024 * 1024;
+    private static final long TYPICAL_LATENCY_NANOS = 10_000_000;
+    private static final String REPO_A = "library/a";
+    private static final String REPO_B = "library/b";
+
+    @Test
+    void waitersAreServedInOrder() {
+        RegistryLimiter limiter = new RegistryLimiter(1, 1, 1);
+        assertTrue(acquire(limiter).isDone());
+        CompletableFuture<Void> second = acquire(limiter);
+        CompletableFuture<Void> third = acquire(limiter);
+        assertFalse(second.isDone());
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(third.isDone());
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertEquals(0, limiter.inFlightCount());
+    }
+
+    @Test
+    void cancelledWaiterDoesNotConsumePermit() {
+        RegistryLimiter limiter = new RegistryLimiter(1, 1, 1);
+        acquire(limiter);
+        CompletableFuture<Void> cancelled = acquire(limiter);
+        CompletableFuture<Void> next = acquire(limiter);
+        cancelled.cancel(true);
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(next.isDone() && !next.isCompletedExceptionally());
+        assertEquals(1, limiter.inFlightCount());
+    }
+
+    @Test
+    void growsWhileBusyAndHealthy() {
+        RegistryLimiter limiter = new RegistryLimiter(2, 1, 4);
+        for (int i = 0; i < 20; i++) {
+            acquire(limiter);
+            acquire(limiter);
+            release(limiter, RegistryLimiter.Outcome.SUCCESS);
+            release(limiter, RegistryLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(4, limiter.currentLimit(), "additive increase up to the ceiling");
+    }
+
+    @Test
+    void throttlingCutsLimitOncePerRoundTrip() {
+        RegistryLimiter limiter = new RegistryLimiter(10, 2, 10);
+        long started = System.nanoTime();
+        acquire(limiter);
+        acquire(limiter);
+        limiter.release(RegistryLimiter.Outcome.THROTTLED, started, MIB);
+        assertEquals(7, limiter.currentLimit());
+        limiter.release(RegistryLimiter.Outcome.THROTTLED, started, MIB);
+        assertEquals(7, limiter.currentLimit(), "second 503 of the same round trip is not counted again");
+
+        for (int i = 0; i < 10; i++) {
+            acquire(limiter);
+            limiter.release(RegistryLimiter.Outcome.THROTTLED, System.nanoTime(), MIB);
+        }
+        assertEquals(2, limiter.currentLimit(), "never below the floor");
+    }
+
+    @Test
+    void latencySpikeCutsLimit() {
+        RegistryLimiter limiter = new RegistryLimiter(8, 1, 8);
+        acquire(limiter);
+        limiter.release(RegistryLimiter.Outcome.SUCCESS, System.nanoTime() - 1_000_000, MIB);
+        acquire(limiter);
+        limiter.release(RegistryLimiter.Outcome.SUCCESS, System.nanoTime() - 50_000_000, MIB);
+        assertEquals(5, limiter.currentLimit());
+    }
+
+    @Test
+    void moreUrgentClassIsServedFirst() {
+        RegistryLimiter limiter = new RegistryLimiter(1, 1, 1);
+        acquire(limiter);
+        CompletableFuture<Void> background = limiter.acquire(FetchPriority.BACKGROUND, REPO_A);
+        CompletableFuture<Void> critical = limiter.acquire(FetchPriority.POD_START_CRITICAL, REPO_B);
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(critical.isDone());
+        assertFalse(background.isDone());
+    }
+
+    @Test
+    void repositoriesTakeTurnsWithinClass() {
+        RegistryLimiter limiter = new RegistryLimiter(1, 1, 1);
+        acquire(limiter);
+        List<CompletableFuture<Void>> warmUp = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            warmUp.add(limiter.acquire(FetchPriority.BACKGROUND, REPO_A));
+        }
+        CompletableFuture<Void> other = limiter.acquire(FetchPriority.BACKGROUND, REPO_B);
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(warmUp.get(0).isDone());
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(other.isDone(), "second repository does not wait behind the whole first one");
+        assertFalse(warmUp.get(1).isDone());
+    }
+
+    @Test
+    void promotedTicketJumpsQueue() {
+        RegistryLimiter limiter = new RegistryLimiter(1, 1, 1);
+        acquire(limiter);
+        RegistryLimiter.Ticket first = limiter.acquire(FetchPriority.BACKGROUND, REPO_A);
+        RegistryLimiter.Ticket shared = limiter.acquire(FetchPriority.BACKGROUND, REPO_A);
+        limiter.promote(shared, FetchPriority.POD_START_CRITICAL);
+
+        release(limiter, RegistryLimiter.Outcome.IGNORED);
+        assertTrue(shared.isDone());
+        assertFalse(first.isDone());
+    }
+
+    private static RegistryLimiter.Ticket acquire(RegistryLimiter limiter) {
+        return limiter.acquire(FetchPriority.INTERACTIVE, REPO_A);
+    }
+
+    private static void release(RegistryLimiter limiter, RegistryLimiter.Outcome outcome) {
+        limiter.release(outcome, System.nanoTime() - TYPICAL_LATENCY_NANOS, MIB);
+    }
+}
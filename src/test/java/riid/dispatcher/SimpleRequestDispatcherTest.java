@@ -0,0 +1,372 @@
+package riid.dispatcher;
+
+import org.junit.jupiter.api.Test;
+import riid.cache.CacheMediaType;
+import riid.cache.FileCacheAdapter;
+import riid.cache.ImageDigest;
+import riid.client.api.BlobRequest;
+import riid.client.api.BlobResult;
+import riid.client.api.ManifestResult;
+import riid.client.api.RegistryClient;
+import riid.client.core.model.manifest.Descriptor;
+import riid.client.core.model.manifest.Manifest;
+import riid.client.core.model.manifest.TagList;
+import riid.p2p.P2PExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimpleRequestDispatcherTest {
+    private static final String REPO = "library/app";
+    private static final String LAYER_TYPE = "application/vnd.docker.image.rootfs.diff.tar.gzip";
+    private static final String CONFIG_TYPE = "application/vnd.docker.container.image.v1+json";
+    private static final String MANIFEST_TYPE = "application/vnd.docker.distribution.manifest.v2+json";
+    private static final String MANIFEST_DIGEST = digest('f');
+    private static final int LAYERS = 6;
+    private static final ImageRef LATEST = new ImageRef(REPO, "latest", null);
+
+    @Test
+    void fetchesConfigAndAllLayersConcurrently() throws Exception {
+        FakeClient client = new FakeClient(manifest(LAYERS), 50);
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, null,
+                new DispatcherConfig(3).withFixedRegistryLimit())) {
+            FetchResult result = dispatcher.fetchImage(LATEST);
+
+            assertEquals(MANIFEST_DIGEST, result.digest());
+            assertEquals(digest('c'), result.config().digest());
+            assertEquals(LAYERS, result.layers().size());
+            for (int i = 0; i < LAYERS; i++) {
+                LayerResult layer = result.layers().get(i);
+                assertEquals(digest(Character.forDigit(i, 16)), layer.digest(), "layers keep manifest order");
+                assertTrue(new File(layer.path()).exists());
+            }
+            assertEquals(LAYERS + 1, client.fetched.size(), "config and every layer fetched once");
+            assertTrue(client.maxInFlight.get() > 1, "downloads should overlap");
+            assertTrue(client.maxInFlight.get() <= 3, "registry limit must still apply");
+        }
+    }
+
+    @Test
+    void virtualThreadWorkersFetchAllLayers() throws Exception {
+        FakeClient client = new FakeClient(manifest(LAYERS), 10);
+        var config = new DispatcherConfig(3).withWorkerThreads(1).withVirtualThreads(true);
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, null, config)) {
+            FetchResult result = dispatcher.fetchImage(LATEST);
+            assertEquals(LAYERS, result.layers().size());
+            assertEquals(LAYERS + 1, client.fetched.size());
+        }
+    }
+
+    @Test
+    void duplicateDigestsShareOneFetch() throws Exception {
+        Descriptor shared = new Descriptor(LAYER_TYPE, digest('a'), 1);
+        Manifest manifest = new Manifest(2, MANIFEST_TYPE, new Descriptor(CONFIG_TYPE, digest('c'), 1),
+                List.of(shared, shared, shared));
+        FakeClient client = new FakeClient(manifest, 100);
+        var config = new DispatcherConfig(4).withWorkerThreads(4);
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, null, config)) {
+            FetchResult result = dispatcher.fetchImage(LATEST);
+            assertEquals(3, result.layers().size());
+            assertEquals(1, client.fetched.get(digest('a')), "in-flight fetch of a digest is shared");
+            assertEquals(result.layers().get(0).path(), result.layers().get(2).path());
+        }
+    }
+
+    @Test
+    void failedLayerFailsImage() throws Exception {
+        FakeClient client = new FakeClient(manifest(2), 0);
+        client.failing = digest('1');
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, null)) {
+            assertThrows(IllegalStateException.class,
+                    () -> dispatcher.fetchImage(LATEST));
+        }
+    }
+
+    @Test
+    void cancellingImageFetchAbortsDownloads() throws Exception {
+        FakeClient client = new FakeClient(manifest(2), 0);
+        client.hanging = digest('1');
+        var config = new DispatcherConfig(1).withWorkerThreads(2);
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, null, config)) {
+            CompletableFuture<FetchResult> image = dispatcher.fetchImageAsync(LATEST);
+            CompletableFuture<BlobResult> download = client.hangingFetch.get(5, TimeUnit.SECONDS);
+
+            assertTrue(image.cancel(true));
+            assertThrows(CancellationException.class, () -> download.get(5, TimeUnit.SECONDS),
+                    "cancellation reaches the in-flight download");
+
+            FetchResult again = dispatcher.fetchImageAsync(LATEST).get(5, TimeUnit.SECONDS);
+            assertEquals(2, again.layers().size(), "registry slot was released");
+        }
+    }
+
+    @Test
+    void slowPeerIsRacedByRegistry() throws Exception {
+        FakeClient client = new FakeClient(manifest(2), 0);
+        FakePeers peers = new FakePeers(5_000, true);
+        var config = new DispatcherConfig(4).withWorkerThreads(4).withP2pGracePeriod(Duration.ofMillis(50));
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, peers, config)) {
+            FetchResult result = dispatcher.fetchImageAsync(LATEST).get(2, TimeUnit.SECONDS);
+
+            assertEquals(2, result.layers().size());
+            assertEquals(3, client.fetched.size(), "registry serves every blob");
+            assertTrue(peers.interrupted.await(2, TimeUnit.SECONDS), "losing P2P transfer is cancelled");
+        }
+    }
+
+    @Test
+    void peerMissStartsRegistryWithoutWaitingForGrace() throws Exception {
+        FakeClient client = new FakeClient(manifest(2), 0);
+        var config = new DispatcherConfig(4).withWorkerThreads(4).withP2pGracePeriod(Duration.ofSeconds(10));
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, new FakePeers(0, false), config)) {
+            FetchResult result = dispatcher.fetchImageAsync(LATEST).get(2, TimeUnit.SECONDS);
+            assertEquals(2, result.layers().size());
+        }
+    }
+
+    @Test
+    void closingDuringGracePeriodFailsPendingRace() throws Exception {
+        FakeClient client = new FakeClient(manifest(1), 0);
+        StuckPeers peers = new StuckPeers(2);
+        var config = new DispatcherConfig(4).withWorkerThreads(4).withP2pGracePeriod(Duration.ofMillis(200));
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, peers, config)) {
+            CompletableFuture<FetchResult> image = dispatcher.fetchImageAsync(LATEST);
+            assertTrue(peers.entered.await(2, TimeUnit.SECONDS));
+            dispatcher.close();
+
+            var failure = assertThrows(ExecutionException.class, () -> image.get(2, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+            assertTrue(client.fetched.isEmpty(), "nothing is downloaded after close");
+        } finally {
+            peers.release.countDown();
+        }
+    }
+
+    @Test
+    void peerWinningRaceCancelsRegistryDownload() throws Exception {
+        FakeClient client = new FakeClient(manifest(1), 1_000);
+        client.hanging = digest('0');
+        FakePeers peers = new FakePeers(200, true);
+        var config = new DispatcherConfig(4).withWorkerThreads(4).withP2pGracePeriod(Duration.ofMillis(10));
+        try (var dispatcher = new SimpleRequestDispatcher(client, null, peers, config)) {
+            FetchResult result = dispatcher.fetchImageAsync(LATEST).get(2, TimeUnit.SECONDS);
+            CompletableFuture<BlobResult> download = client.hangingFetch.get(1, TimeUnit.SECONDS);
+
+            assertEquals(peers.served.get(digest('0')), result.layers().getFirst().path());
+            assertThrows(CancellationException.class, () -> download.get(2, TimeUnit.SECONDS));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (client.hangingTarget.exists() && System.nanoTime() < deadline) {
+                Thread.onSpinWait(); // cleanup runs right after the cancellation is observed
+            }
+            assertFalse(client.hangingTarget.exists(), "partial registry download is deleted");
+        }
+    }
+
+    @Test
+    void registryDownloadIsCommittedIntoCacheWithoutCopy() throws Exception {
+        Path root = Files.createTempDirectory("riid-cache-");
+        FakeClient client = new FakeClient(manifest(2), 0);
+        FakePeers peers = new FakePeers(0, false);
+        try (var dispatcher = new SimpleRequestDispatcher(client, new FileCacheAdapter(root.toString()), peers)) {
+            FetchResult result = dispatcher.fetchImage(LATEST);
+
+            for (LayerResult layer : result.layers()) {
+                Path cached = root.resolve(layer.digest().replace(':', '_')).toAbsolutePath();
+                assertEquals(cached.toString(), layer.path(), "layer is served from its cache entry");
+                assertEquals(layer.digest(), Files.readString(cached));
+                assertEquals(cached.toString(), peers.published.get(layer.digest()), "peers get the cache file");
+            }
+            for (File target : client.targets) {
+                assertEquals(root.toAbsolutePath(), target.getAbsoluteFile().getParentFile().toPath(),
+                        "download is written into the cache directory");
+            }
+            try (var files = Files.list(root)) {
+                assertEquals(3, files.count(), "no staging or temp files left behind");
+            }
+        }
+    }
+
+    private static Manifest manifest(int layers) {
+        List<Descriptor> list = new ArrayList<>();
+        for (int i = 0; i < layers; i++) {
+            list.add(new Descriptor(LAYER_TYPE, digest(Character.forDigit(i, 16)), 1));
+        }
+        return new Manifest(2, MANIFEST_TYPE, new Descriptor(CONFIG_TYPE, digest('c'), 1), list);
+    }
+
+    private static String digest(char c) {
+        return "sha256:" + String.valueOf(c).repeat(64);
+    }
+
+    private static final class FakeClient implements RegistryClient {
+        private final Manifest manifest;
+        private final long delayMillis;
+        private final Map<String, Integer> fetched = new ConcurrentHashMap<>();
+        private final List<File> targets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final CompletableFuture<CompletableFuture<BlobResult>> hangingFetch = new CompletableFuture<>();
+        private volatile String failing;
+        private volatile String hanging;
+        private volatile File hangingTarget;
+
+        FakeClient(Manifest manifest, long delayMillis) {
+            this.manifest = manifest;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public ManifestResult fetchManifest(String repository, String reference) {
+            return new ManifestResult(MANIFEST_DIGEST, MANIFEST_TYPE, 1, manifest);
+        }
+
+        @Override
+        public CompletableFuture<ManifestResult> fetchManifestAsync(String repository, String reference) {
+            return CompletableFuture.completedFuture(fetchManifest(repository, reference));
+        }
+
+        @Override
+        public BlobResult fetchConfig(String repository, Manifest m, File target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BlobResult fetchBlob(BlobRequest request, File target) {
+            targets.add(target);
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+                if (request.digest().equals(failing)) {
+                    throw new IllegalStateException("boom");
+                }
+                Files.writeString(target.toPath(), request.digest());
+                fetched.merge(request.digest(), 1, Integer::sum);
+                return new BlobResult(request.digest(), target.length(), request.mediaType(),
+                        target.getAbsolutePath());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompletableFuture<BlobResult> fetchBlobAsync(BlobRequest request, File target) {
+            if (request.digest().equals(hanging) && !hangingFetch.isDone()) {
+                hangingTarget = target;
+                CompletableFuture<BlobResult> never = new CompletableFuture<>();
+                hangingFetch.complete(never);
+                return never;
+            }
+            return CompletableFuture.supplyAsync(() -> fetchBlob(request, target), Thread::startVirtualThread);
+        }
+
+        @Override
+        public Optional<Long> headBlob(String repository, String digest) {
+            return Optional.empty();
+        }
+
+        @Override
+        public TagList listTags(String repository, Integer n, String last) {
+            return new TagList(repository, List.of());
+        }
+    }
+
+    /**
+     * Peers that hold every lookup, ignoring interrupts, until released.
+     */
+    private static final class StuckPeers implements P2PExecutor {
+        private final CountDownLatch entered;
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        StuckPeers(int lookups) {
+            this.entered = new CountDownLatch(lookups);
+        }
+
+        @Override
+        public Optional<Path> fetch(ImageDigest digest, long size, CacheMediaType mediaType) {
+            entered.countDown();
+            boolean interrupted = false;
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted = true; // keep holding the lookup, like a peer stuck in blocking I/O
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public void publish(ImageDigest digest, Path path, long size, CacheMediaType mediaType) {
+            // nothing to serve
+        }
+    }
+
+    private static final class FakePeers implements P2PExecutor {
+        private final long delayMillis;
+        private final boolean hit;
+        private final Map<String, String> served = new ConcurrentHashMap<>();
+        private final Map<String, String> published = new ConcurrentHashMap<>();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        FakePeers(long delayMillis, boolean hit) {
+            this.delayMillis = delayMillis;
+            this.hit = hit;
+        }
+
+        @Override
+        public Optional<Path> fetch(ImageDigest digest, long size, CacheMediaType mediaType) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+                if (!hit) {
+                    return Optional.empty();
+                }
+                Path path = Files.createTempFile("peer-", ".bin");
+                path.toFile().deleteOnExit();
+                served.put(digest.toString(), path.toString());
+                return Optional.of(path);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void publish(ImageDigest digest, Path path, long size, CacheMediaType mediaType) {
+            published.put(digest.toString(), path.toString());
+        }
+    }
+}